@@ -0,0 +1,91 @@
+package com.github.mchernyakov.variousttlmap;
+
+import com.github.mchernyakov.variousttlmap.aof.FsyncPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the append-only log for puts: {@code OFF} is the map without the log.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AppendOnlyLogBenchmark {
+
+    private static final long TTL_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+    private static final Serializer<Integer> INT = new Serializer<Integer>() {
+        @Override
+        public byte[] serialize(Integer value) {
+            return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+        }
+
+        @Override
+        public Integer deserialize(byte[] bytes) {
+            return ByteBuffer.wrap(bytes).getInt();
+        }
+    };
+
+    private static final Serializer<String> UTF_8 = new Serializer<String>() {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    @Param({"OFF", "NEVER", "EVERY_SECOND", "ALWAYS"})
+    String fsyncPolicy;
+
+    @Param({"100000"})
+    int keySpace;
+
+    private Path dir;
+    private VariousTtlMapImpl<Integer, String> map;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("aof-benchmark");
+        VariousTtlMapImpl.Builder<Integer, String> builder = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(TTL_SECONDS)
+                .setKeySerializer(INT)
+                .setValueSerializer(UTF_8);
+        if (!"OFF".equals(fsyncPolicy)) {
+            builder.setAppendOnlyLog(dir.resolve("map.aof"))
+                    .setFsyncPolicy(FsyncPolicy.valueOf(fsyncPolicy));
+        }
+        map = builder.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        map.shutdown();
+        Files.deleteIfExists(dir.resolve("map.aof"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public String put() {
+        return map.put(ThreadLocalRandom.current().nextInt(keySpace), "val");
+    }
+}
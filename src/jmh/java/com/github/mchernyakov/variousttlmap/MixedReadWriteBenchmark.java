@@ -0,0 +1,78 @@
+package com.github.mchernyakov.variousttlmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a mix of {@code get} and {@code put} with the given share of reads.
+ * <p>
+ * The number of threads is set from the command line, e.g. {@code ./gradlew jmh -PjmhThreads=8}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MixedReadWriteBenchmark {
+
+    private static final long TTL_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+    @Param({"100000"})
+    int keySpace;
+
+    @Param({"50", "90", "99"})
+    int readPercent;
+
+    private VariousTtlMapImpl<Integer, String> map;
+    private Integer[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(TTL_SECONDS)
+                .setCleaningPoolSize(1)
+                .setNumCleaningAttemptsPerSession(20)
+                .setWaterMarkPercent(10)
+                .setDelayMillis(100)
+                .build();
+
+        keys = new Integer[keySpace];
+        for (int i = 0; i < keySpace; i++) {
+            keys[i] = i;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        for (Integer key : keys) {
+            map.put(key, "val");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.shutdown();
+    }
+
+    private Integer randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(keySpace)];
+    }
+
+    @Benchmark
+    public String mixed() {
+        Integer key = randomKey();
+        if (ThreadLocalRandom.current().nextInt(100) < readPercent) {
+            return map.get(key);
+        }
+        return map.put(key, "val", TTL_SECONDS);
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.mchernyakov.variousttlmap;
+
+import com.github.mchernyakov.variousttlmap.applied.TtlIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the ttl index engines with the given share of reads.
+ * <p>
+ * The number of threads is set from the command line, e.g. {@code ./gradlew jmh -PjmhThreads=8}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TtlIndexBenchmark {
+
+    @Param({"READ_WRITE_LOCK", "STAMPED_LOCK"})
+    TtlIndexEngine engine;
+
+    @Param({"100000"})
+    int keySpace;
+
+    @Param({"90", "100"})
+    int readPercent;
+
+    private TtlIndex index;
+
+    @Setup
+    public void setUp() {
+        index = engine.get();
+        for (int i = 0; i < keySpace; i++) {
+            index.put(i, i);
+        }
+    }
+
+    @Benchmark
+    public long mixed() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int hash = random.nextInt(keySpace);
+        if (random.nextInt(100) < readPercent) {
+            return index.get(hash);
+        }
+        index.put(hash, hash);
+        return hash;
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.mchernyakov.variousttlmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the map operations.
+ * <p>
+ * The number of threads is set from the command line, e.g. {@code ./gradlew jmh -PjmhThreads=8}.
+ * TTL is long enough that nothing expires during a run, so the numbers show the cost of the storage and ttl maps.
+ * <p>
+ * Bulk benchmarks process {@link VariousTtlMapBenchmark#batchSize} keys per call, with bulk methods or key by key.
+ * {@link VariousTtlMapBenchmark#coarseTicker} compares {@link Ticker#systemTicker()} with {@link Ticker#coarseTicker()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VariousTtlMapBenchmark {
+
+    private static final long TTL_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+    @Param({"100000"})
+    int keySpace;
+
+    @Param({"1000"})
+    int batchSize;
+
+    @Param({"false", "true"})
+    boolean coarseTicker;
+
+    private VariousTtlMapImpl<Integer, String> map;
+    private Integer[] keys;
+    private List<Integer> batchKeys;
+    private Map<Integer, String> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(TTL_SECONDS)
+                .setCleaningPoolSize(1)
+                .setNumCleaningAttemptsPerSession(20)
+                .setWaterMarkPercent(10)
+                .setDelayMillis(100)
+                .setTicker(coarseTicker ? Ticker.coarseTicker() : Ticker.systemTicker())
+                .build();
+
+        keys = new Integer[keySpace];
+        for (int i = 0; i < keySpace; i++) {
+            keys[i] = i;
+        }
+
+        batchKeys = Arrays.asList(keys).subList(0, batchSize);
+        batch = new HashMap<>();
+        for (Integer key : batchKeys) {
+            batch.put(key, "val");
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        for (Integer key : keys) {
+            map.put(key, "val");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.shutdown();
+    }
+
+    private Integer randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(keySpace)];
+    }
+
+    @Benchmark
+    public String get() {
+        return map.get(randomKey());
+    }
+
+    @Benchmark
+    public String put() {
+        return map.put(randomKey(), "val", TTL_SECONDS);
+    }
+
+    @Benchmark
+    public String remove() {
+        return map.remove(randomKey());
+    }
+
+    @Benchmark
+    public void putAll() {
+        map.putAll(batch, TTL_SECONDS);
+    }
+
+    @Benchmark
+    public void putOneByOne() {
+        for (Map.Entry<Integer, String> entry : batch.entrySet()) {
+            map.put(entry.getKey(), entry.getValue(), TTL_SECONDS);
+        }
+    }
+
+    @Benchmark
+    public Map<Integer, String> getAll() {
+        return map.getAll(batchKeys);
+    }
+
+    @Benchmark
+    public int getOneByOne() {
+        int found = 0;
+        for (Integer key : batchKeys) {
+            if (map.get(key) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
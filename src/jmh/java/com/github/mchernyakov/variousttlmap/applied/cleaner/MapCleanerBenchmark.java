@@ -0,0 +1,75 @@
+package com.github.mchernyakov.variousttlmap.applied.cleaner;
+
+import com.github.mchernyakov.variousttlmap.VariousTtlMapImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single cleaning session.
+ * <p>
+ * {@code cleaningPoolSize = 1} gives {@link SingleThreadMapCleaner}, greater values give {@link MultiThreadMapCleaner}.
+ * The session runs in the benchmark thread, the scheduled cleaners of the map are effectively disabled by a huge delay.
+ * Keys are not expired, so a session always checks {@code numKeyCheck} keys and removes nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class MapCleanerBenchmark {
+
+    private static final long TTL_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+    @Param({"10000", "1000000", "10000000"})
+    int numKeys;
+
+    @Param({"1", "4"})
+    int cleaningPoolSize;
+
+    @Param({"20"})
+    int numKeyCheck;
+
+    @Param({"SNAPSHOT", "RANDOM_PROBE"})
+    SamplingMode samplingMode;
+
+    private VariousTtlMapImpl<Integer, String> map;
+    private AbstractBackgroundMapCleaner<Integer, String> cleaner;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(TTL_SECONDS)
+                .setCleaningPoolSize(cleaningPoolSize)
+                .setNumCleaningAttemptsPerSession(numKeyCheck)
+                .setWaterMarkPercent(10)
+                .setDelayMillis(Integer.MAX_VALUE)
+                .setSamplingMode(samplingMode)
+                .build();
+
+        for (int i = 0; i < numKeys; i++) {
+            map.put(i, "val");
+        }
+
+        cleaner = (AbstractBackgroundMapCleaner<Integer, String>) map.getMapCleaner();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.shutdown();
+    }
+
+    @Benchmark
+    public boolean session() {
+        return cleaner.runSession();
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.mchernyakov.variousttlmap;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous view of {@link VariousTtlMap}, see {@link VariousTtlMap#async(java.util.concurrent.Executor)}.
+ * <p>
+ * Operations run on the executor of the view, the calling thread never takes a lock of the map.
+ * Writes are queued and applied in batches by {@link VariousTtlMap#putAll(java.util.Map, long)}
+ * and {@link VariousTtlMap#removeAll(java.util.Collection)}, in the order they were made,
+ * so they don't report previous values.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public interface AsyncVariousTtlMap<K, V> {
+
+    /**
+     * @return future of the value or of null if the key is absent or expired
+     */
+    CompletableFuture<V> getAsync(@NotNull K key);
+
+    /**
+     * Puts the key with the default ttl.
+     *
+     * @return future which is completed when the write is applied
+     */
+    CompletableFuture<Void> putAsync(@NotNull K key, @NotNull V value);
+
+    /**
+     * @return future which is completed when the write is applied
+     */
+    CompletableFuture<Void> putAsync(@NotNull K key, @NotNull V value, long ttl);
+
+    /**
+     * @return future which is completed when the key is removed
+     */
+    CompletableFuture<Void> removeAsync(@NotNull K key);
+
+    /**
+     * @return the map of this view
+     */
+    VariousTtlMap<K, V> synchronous();
+}
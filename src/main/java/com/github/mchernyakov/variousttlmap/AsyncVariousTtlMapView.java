@@ -0,0 +1,182 @@
+package com.github.mchernyakov.variousttlmap;
+
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link AsyncVariousTtlMap} with write coalescing.
+ * <p>
+ * Writes go to {@link AsyncVariousTtlMapView#pending}, a single drain task on the executor takes
+ * up to {@link AsyncVariousTtlMapView#MAX_BATCH} of them and applies every run of consecutive puts with the same ttl
+ * (and distinct keys) as one {@link VariousTtlMap#putAll(Map, long)} and every run of removes as one
+ * {@link VariousTtlMap#removeAll(java.util.Collection)}, so a stripe lock is taken once per run.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+class AsyncVariousTtlMapView<K, V> implements AsyncVariousTtlMap<K, V> {
+
+    private static final int MAX_BATCH = 1024;
+    private static final long DEFAULT_TTL = -1;
+
+    private final VariousTtlMap<K, V> map;
+    private final Executor executor;
+
+    private final Queue<Write<K, V>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    AsyncVariousTtlMapView(VariousTtlMap<K, V> map, Executor executor) {
+        this.map = Preconditions.checkNotNull(map);
+        this.executor = Preconditions.checkNotNull(executor);
+    }
+
+    @Override
+    public CompletableFuture<V> getAsync(@NotNull K key) {
+        return CompletableFuture.supplyAsync(() -> map.get(key), executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(@NotNull K key, @NotNull V value) {
+        // null is the remove of the write buffer
+        Preconditions.checkNotNull(value);
+        return write(new Write<>(key, value, DEFAULT_TTL));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(@NotNull K key, @NotNull V value, long ttl) {
+        Preconditions.checkNotNull(value);
+        Preconditions.checkArgument(ttl >= 0);
+        return write(new Write<>(key, value, ttl));
+    }
+
+    @Override
+    public CompletableFuture<Void> removeAsync(@NotNull K key) {
+        return write(new Write<>(key, null, DEFAULT_TTL));
+    }
+
+    @Override
+    public VariousTtlMap<K, V> synchronous() {
+        return map;
+    }
+
+    private CompletableFuture<Void> write(Write<K, V> write) {
+        pending.add(write);
+        scheduleDrain();
+        return write.future;
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                drainScheduled.set(false);
+                Write<K, V> write;
+                while ((write = pending.poll()) != null) {
+                    write.future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            List<Write<K, V>> batch = new ArrayList<>();
+            Write<K, V> write;
+            while (batch.size() < MAX_BATCH && (write = pending.poll()) != null) {
+                batch.add(write);
+            }
+            apply(batch);
+        } finally {
+            drainScheduled.set(false);
+            if (!pending.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    private void apply(List<Write<K, V>> batch) {
+        int size = batch.size();
+        int start = 0;
+        while (start < size) {
+            Write<K, V> first = batch.get(start);
+            int end = start;
+            try {
+                if (first.isRemove()) {
+                    Set<K> keys = new LinkedHashSet<>();
+                    while (end < size && batch.get(end).isRemove()) {
+                        keys.add(batch.get(end++).key);
+                    }
+                    map.removeAll(keys);
+                } else {
+                    // a repeated key starts a new run, the last write wins
+                    Map<K, V> entries = new HashMap<>();
+                    Write<K, V> next;
+                    while (end < size && !(next = batch.get(end)).isRemove()
+                            && next.ttl == first.ttl && !entries.containsKey(next.key)) {
+                        entries.put(next.key, next.value);
+                        end++;
+                    }
+                    if (first.ttl == DEFAULT_TTL) {
+                        map.putAll(entries);
+                    } else {
+                        map.putAll(entries, first.ttl);
+                    }
+                }
+                complete(batch, start, end, null);
+            } catch (RuntimeException e) {
+                end = Math.max(end, start + 1);
+                complete(batch, start, end, e);
+            }
+            start = end;
+        }
+    }
+
+    private static <K, V> void complete(List<Write<K, V>> batch, int start, int end, RuntimeException error) {
+        for (int i = start; i < end; i++) {
+            if (error == null) {
+                batch.get(i).future.complete(null);
+            } else {
+                batch.get(i).future.completeExceptionally(error);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncVariousTtlMapView{" +
+                "map=" + map +
+                ", pending=" + pending.size() +
+                '}';
+    }
+
+    private static final class Write<K, V> {
+        final K key;
+        final V value;
+        final long ttl;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Write(K key, V value, long ttl) {
+            this.key = key;
+            this.value = value;
+            this.ttl = ttl;
+        }
+
+        boolean isRemove() {
+            return value == null;
+        }
+    }
+}
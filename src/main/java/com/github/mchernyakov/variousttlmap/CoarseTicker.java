@@ -0,0 +1,42 @@
+package com.github.mchernyakov.variousttlmap;
+
+import com.github.mchernyakov.variousttlmap.util.ThreadUtil;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Ticker} which reads a volatile field instead of {@link System#nanoTime()}.
+ * <p>
+ * A daemon thread writes {@link System#nanoTime()} to the field every {@link CoarseTicker#RESOLUTION_NANOS},
+ * so a read is a plain memory load and is at most about a millisecond behind.
+ * The thread is started on first use and shared by all maps.
+ */
+final class CoarseTicker implements Ticker {
+
+    private static final long RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    static final CoarseTicker INSTANCE = new CoarseTicker();
+
+    private volatile long nanos = System.nanoTime();
+
+    private CoarseTicker() {
+        ScheduledExecutorService executorService =
+                Executors.newSingleThreadScheduledExecutor(ThreadUtil.threadFactory("map-coarse-ticker"));
+        executorService.scheduleAtFixedRate(() -> nanos = System.nanoTime(),
+                RESOLUTION_NANOS, RESOLUTION_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public long read() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "CoarseTicker{" +
+                "resolutionNanos=" + RESOLUTION_NANOS +
+                '}';
+    }
+}
@@ -0,0 +1,32 @@
+package com.github.mchernyakov.variousttlmap;
+
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Ticker} which is moved by hand, e.g. to expire keys in tests without sleeping.
+ */
+public class ManualTicker implements Ticker {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+        return nanos.get();
+    }
+
+    public ManualTicker advance(long duration, TimeUnit unit) {
+        Preconditions.checkArgument(duration >= 0);
+        nanos.addAndGet(unit.toNanos(duration));
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "ManualTicker{" +
+                "nanos=" + nanos +
+                '}';
+    }
+}
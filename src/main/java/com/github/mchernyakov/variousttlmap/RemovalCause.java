@@ -0,0 +1,28 @@
+package com.github.mchernyakov.variousttlmap;
+
+/**
+ * Why an entry was removed, see {@link RemovalListener}.
+ */
+public enum RemovalCause {
+
+    /**
+     * The ttl of the entry is over: passive expiry by a read, the background cleaner or the evictor.
+     */
+    EXPIRED,
+
+    /**
+     * Removed by {@link VariousTtlMap#remove(Object)}, {@link VariousTtlMap#removeAll(java.util.Collection)}
+     * or {@link VariousTtlMap#clear()}.
+     */
+    EXPLICIT,
+
+    /**
+     * The value was overwritten by a put.
+     */
+    REPLACED,
+
+    /**
+     * Removed by the evictor because the map is over its bound.
+     */
+    EVICTED
+}
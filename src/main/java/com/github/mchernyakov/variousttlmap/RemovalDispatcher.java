@@ -0,0 +1,122 @@
+package com.github.mchernyakov.variousttlmap;
+
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link RemovalListener} which delivers notifications to another listener on the executor.
+ * <p>
+ * Notifications go to {@link RemovalDispatcher#pending}, bounded by {@link RemovalDispatcher#capacity},
+ * a single drain task on the executor delivers up to {@link RemovalDispatcher#MAX_BATCH} of them.
+ * So the listener never runs under the locks of the storage or in the cleaner threads,
+ * and a notification costs the removing thread a lock-free offer.
+ * When the queue is full, the notification is dropped and counted in {@link RemovalDispatcher#dropped()}.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+class RemovalDispatcher<K, V> implements RemovalListener<K, V> {
+    private static final Logger logger = LoggerFactory.getLogger(RemovalDispatcher.class);
+
+    private static final int MAX_BATCH = 1024;
+
+    private final RemovalListener<? super K, ? super V> listener;
+    private final Executor executor;
+    private final int capacity;
+
+    private final Queue<Notification<K, V>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final LongAdder dropped = new LongAdder();
+
+    RemovalDispatcher(RemovalListener<? super K, ? super V> listener, Executor executor, int capacity) {
+        Preconditions.checkArgument(capacity > 0);
+
+        this.listener = Preconditions.checkNotNull(listener);
+        this.executor = Preconditions.checkNotNull(executor);
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void onRemoval(@NotNull K key, @NotNull V value, @NotNull RemovalCause cause) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        pending.add(new Notification<>(key, value, cause));
+        scheduleDrain();
+    }
+
+    /**
+     * @return number of notifications dropped because the queue was full or the executor rejected the drain
+     */
+    long dropped() {
+        return dropped.sum();
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                logger.warn("Removal notifications are rejected", e);
+                drainScheduled.set(false);
+                while (pending.poll() != null) {
+                    size.decrementAndGet();
+                    dropped.increment();
+                }
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            Notification<K, V> notification;
+            for (int i = 0; i < MAX_BATCH && (notification = pending.poll()) != null; i++) {
+                size.decrementAndGet();
+                try {
+                    listener.onRemoval(notification.key, notification.value, notification.cause);
+                } catch (RuntimeException e) {
+                    logger.warn("Error in removal listener, key {}", notification.key, e);
+                }
+            }
+        } finally {
+            drainScheduled.set(false);
+            if (!pending.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RemovalDispatcher{" +
+                "capacity=" + capacity +
+                ", size=" + size +
+                ", dropped=" + dropped +
+                '}';
+    }
+
+    private static final class Notification<K, V> {
+        final K key;
+        final V value;
+        final RemovalCause cause;
+
+        Notification(K key, V value, RemovalCause cause) {
+            this.key = key;
+            this.value = value;
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.github.mchernyakov.variousttlmap;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Listener of removed entries, see {@link VariousTtlMapImpl.Builder#setRemovalListener(RemovalListener)}.
+ * <p>
+ * Notifications are delivered asynchronously and in no particular order,
+ * so the entry may already be written again when the listener gets it.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+@FunctionalInterface
+public interface RemovalListener<K, V> {
+
+    void onRemoval(@NotNull K key, @NotNull V value, @NotNull RemovalCause cause);
+}
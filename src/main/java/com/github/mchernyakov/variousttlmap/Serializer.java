@@ -0,0 +1,17 @@
+package com.github.mchernyakov.variousttlmap;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Bytes of a value kept outside of the heap, see {@link VariousTtlMapImpl.Builder#setValueSerializer(Serializer)}.
+ *
+ * @param <V> value
+ */
+public interface Serializer<V> {
+
+    @NotNull
+    byte[] serialize(@NotNull V value);
+
+    @NotNull
+    V deserialize(@NotNull byte[] bytes);
+}
@@ -0,0 +1,436 @@
+package com.github.mchernyakov.variousttlmap;
+
+import com.github.mchernyakov.variousttlmap.applied.cleaner.BackgroundMapCleaner;
+import com.github.mchernyakov.variousttlmap.applied.cleaner.CleanerScheduler;
+import com.github.mchernyakov.variousttlmap.stats.CacheStats;
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import it.unimi.dsi.fastutil.HashCommon;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The map of independent {@link VariousTtlMapImpl} shards, see {@link VariousTtlMapImpl.Builder#buildSharded(int)}.
+ * <p>
+ * A key goes to the shard of the high bits of its mixed hash, the storages use the low bits of the hash
+ * for their stripes, so the keys of a shard are spread over all stripes of it.
+ * Every shard has its own storage, ttl index and cleaner, so rehashing, locks, cleaning sessions
+ * and {@link ShardedVariousTtlMap#clear()} of one shard don't touch the others.
+ * Bulk operations are split by shard and every part goes to its shard as one batch.
+ * <p>
+ * Cleaning sessions of all shards run on one {@link CleanerScheduler}: the one of the builder,
+ * or an own scheduler with {@link VariousTtlMapImpl.Builder#setCleaningPoolSize(int)} threads
+ * which is shut down with the map. Bounds of size and weight are split evenly between the shards.
+ * <p>
+ * {@link ShardedVariousTtlMap#size()}, {@link ShardedVariousTtlMap#getStore()} and {@link ShardedVariousTtlMap#stats()}
+ * are aggregated over the shards and are not atomic.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class ShardedVariousTtlMap<K, V> implements VariousTtlMap<K, V> {
+
+    private final VariousTtlMapImpl<K, V>[] shards;
+    private final int shift;
+    private final CleanerScheduler ownScheduler;
+    private final BackgroundMapCleaner<K, V> mapCleaner = new ShardedCleaner();
+    private final Map<K, V> store = new ShardedStore();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ShardedVariousTtlMap(VariousTtlMapImpl.Builder<K, V> builder, int numShards) {
+        Preconditions.checkArgument(numShards > 0 && Integer.bitCount(numShards) == 1);
+        // files and mbean names can't be shared by the shards
+        Preconditions.checkArgument(builder.statsMBeanName == null);
+        Preconditions.checkArgument(builder.restorePath == null && builder.appendOnlyLogPath == null);
+
+        shards = new VariousTtlMapImpl[numShards];
+        shift = Integer.SIZE - Integer.numberOfTrailingZeros(numShards);
+        ownScheduler = builder.cleanerScheduler == null ? new CleanerScheduler(builder.cleaningPoolSize) : null;
+
+        CleanerScheduler scheduler = builder.cleanerScheduler;
+        int cleaningPoolSize = builder.cleaningPoolSize;
+        long maximumSize = builder.maximumSize;
+        long maximumWeight = builder.maximumWeight;
+        try {
+            if (ownScheduler != null) {
+                builder.cleanerScheduler = ownScheduler;
+                builder.cleaningPoolSize = 1;
+            }
+            builder.maximumSize = shareOf(maximumSize, numShards);
+            builder.maximumWeight = shareOf(maximumWeight, numShards);
+            for (int i = 0; i < numShards; i++) {
+                shards[i] = builder.build();
+            }
+        } catch (RuntimeException | Error e) {
+            shutdown();
+            throw e;
+        } finally {
+            builder.cleanerScheduler = scheduler;
+            builder.cleaningPoolSize = cleaningPoolSize;
+            builder.maximumSize = maximumSize;
+            builder.maximumWeight = maximumWeight;
+        }
+    }
+
+    private static long shareOf(long bound, int numShards) {
+        return bound == 0 ? 0 : Math.max(1, (bound + numShards - 1) / numShards);
+    }
+
+    private VariousTtlMapImpl<K, V> shard(@NotNull Object key) {
+        // shift is 32 for one shard, so the distance is masked
+        return shift == Integer.SIZE ? shards[0] : shards[HashCommon.mix(key.hashCode()) >>> shift];
+    }
+
+    @Override
+    @Nullable
+    public V get(@NotNull K key) {
+        return shard(key).get(key);
+    }
+
+    /**
+     * See {@link VariousTtlMapImpl#get(Object, Function)}.
+     */
+    @Nullable
+    public V get(@NotNull K key, @NotNull Function<? super K, ? extends V> loader) {
+        return shard(key).get(key, loader);
+    }
+
+    /**
+     * See {@link VariousTtlMapImpl#computeIfAbsent(Object, Function, long)}.
+     */
+    @Nullable
+    public V computeIfAbsent(@NotNull K key, @NotNull Function<? super K, ? extends V> loader, long ttlSeconds) {
+        return shard(key).computeIfAbsent(key, loader, ttlSeconds);
+    }
+
+    @Override
+    public V put(@NotNull K key, V value) {
+        return shard(key).put(key, value);
+    }
+
+    @Override
+    public V put(@NotNull K key, V value, long ttl) {
+        return shard(key).put(key, value, ttl);
+    }
+
+    @Override
+    public V remove(@NotNull K key) {
+        return shard(key).remove(key);
+    }
+
+    @Override
+    public void putAll(@NotNull Map<? extends K, ? extends V> map) {
+        Map<K, V>[] parts = split(map);
+        for (int i = 0; i < shards.length; i++) {
+            if (parts[i] != null) {
+                shards[i].putAll(parts[i]);
+            }
+        }
+    }
+
+    @Override
+    public void putAll(@NotNull Map<? extends K, ? extends V> map, long ttl) {
+        Map<K, V>[] parts = split(map);
+        for (int i = 0; i < shards.length; i++) {
+            if (parts[i] != null) {
+                shards[i].putAll(parts[i], ttl);
+            }
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Map<K, V>[] split(@NotNull Map<? extends K, ? extends V> map) {
+        if (shards.length == 1) {
+            return new Map[]{map};
+        }
+        Map<K, V>[] parts = new Map[shards.length];
+        map.forEach((key, value) -> {
+            int shard = HashCommon.mix(key.hashCode()) >>> shift;
+            if (parts[shard] == null) {
+                parts[shard] = new HashMap<>();
+            }
+            parts[shard].put(key, value);
+        });
+        return parts;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<K>[] split(@NotNull Collection<? extends K> keys) {
+        List<K>[] parts = new List[shards.length];
+        for (K key : keys) {
+            int shard = shards.length == 1 ? 0 : HashCommon.mix(key.hashCode()) >>> shift;
+            if (parts[shard] == null) {
+                parts[shard] = new ArrayList<>();
+            }
+            parts[shard].add(key);
+        }
+        return parts;
+    }
+
+    @Override
+    public Map<K, V> getAll(@NotNull Collection<? extends K> keys) {
+        List<K>[] parts = split(keys);
+        Map<K, V> res = new HashMap<>();
+        for (int i = 0; i < shards.length; i++) {
+            if (parts[i] != null) {
+                res.putAll(shards[i].getAll(parts[i]));
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public int removeAll(@NotNull Collection<? extends K> keys) {
+        List<K>[] parts = split(keys);
+        int removed = 0;
+        for (int i = 0; i < shards.length; i++) {
+            if (parts[i] != null) {
+                removed += shards[i].removeAll(parts[i]);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Clears the shards one by one.
+     */
+    @Override
+    public void clear() {
+        for (VariousTtlMapImpl<K, V> shard : shards) {
+            shard.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        long size = 0;
+        for (VariousTtlMapImpl<K, V> shard : shards) {
+            size += shard.size();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    /**
+     * @return total weight of the entries of all shards
+     */
+    public long weightedSize() {
+        long weight = 0;
+        for (VariousTtlMapImpl<K, V> shard : shards) {
+            weight += shard.weightedSize();
+        }
+        return weight;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (VariousTtlMapImpl<K, V> shard : shards) {
+            if (!shard.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return sum of the stats of the shards, empty if stats are off
+     */
+    public CacheStats stats() {
+        CacheStats stats = shards[0].stats();
+        for (int i = 1; i < shards.length; i++) {
+            stats = stats.plus(shards[i].stats());
+        }
+        return stats;
+    }
+
+    /**
+     * @return number of removal notifications dropped by all shards
+     */
+    public long droppedRemovalNotifications() {
+        long dropped = 0;
+        for (VariousTtlMapImpl<K, V> shard : shards) {
+            dropped += shard.droppedRemovalNotifications();
+        }
+        return dropped;
+    }
+
+    /**
+     * @return bytes of memory allocated outside of the heap by all shards
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (VariousTtlMapImpl<K, V> shard : shards) {
+            bytes += shard.offHeapBytes();
+        }
+        return bytes;
+    }
+
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    /**
+     * @return live view of the keys and values of all shards (expired ones too)
+     */
+    @Override
+    public Map<K, V> getStore() {
+        return store;
+    }
+
+    /**
+     * @return cleaner which starts and stops the cleaners of all shards
+     */
+    @Override
+    public BackgroundMapCleaner<K, V> getMapCleaner() {
+        return mapCleaner;
+    }
+
+    /**
+     * Shuts down the shards, then the own scheduler of the map if there is one.
+     */
+    @Override
+    public void shutdown() {
+        for (VariousTtlMapImpl<K, V> shard : shards) {
+            if (shard != null) {
+                shard.shutdown();
+            }
+        }
+        if (ownScheduler != null) {
+            ownScheduler.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedVariousTtlMap{" +
+                "numShards=" + shards.length +
+                ", size=" + size() +
+                '}';
+    }
+
+    private final class ShardedCleaner implements BackgroundMapCleaner<K, V> {
+
+        @Override
+        public void startCleaners() {
+            for (VariousTtlMapImpl<K, V> shard : shards) {
+                shard.getMapCleaner().startCleaners();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            for (VariousTtlMapImpl<K, V> shard : shards) {
+                shard.getMapCleaner().shutdown();
+            }
+        }
+
+        @Override
+        public long budgetOverruns() {
+            long overruns = 0;
+            for (VariousTtlMapImpl<K, V> shard : shards) {
+                overruns += shard.getMapCleaner().budgetOverruns();
+            }
+            return overruns;
+        }
+
+        @Override
+        public void onWrite(K key, long expiration) {
+            shard(key).getMapCleaner().onWrite(key, expiration);
+        }
+
+        @Override
+        public void onRemove(K key) {
+            shard(key).getMapCleaner().onRemove(key);
+        }
+
+        @Override
+        public void onClear() {
+            for (VariousTtlMapImpl<K, V> shard : shards) {
+                shard.getMapCleaner().onClear();
+            }
+        }
+    }
+
+    /**
+     * Keys and raw values of the stores of the shards, the entries are iterated shard by shard.
+     */
+    private final class ShardedStore extends AbstractMap<K, V> {
+
+        @Override
+        public V get(Object key) {
+            return shard(key).getStore().get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return shard(key).getStore().containsKey(key);
+        }
+
+        @Override
+        public V remove(Object key) {
+            return shard(key).getStore().remove(key);
+        }
+
+        @Override
+        public int size() {
+            return ShardedVariousTtlMap.this.size();
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new Iterator<Entry<K, V>>() {
+                        private int shard;
+                        private Iterator<Entry<K, V>> current = shards[0].getStore().entrySet().iterator();
+                        // hasNext() may move to the next shard after next()
+                        private Iterator<Entry<K, V>> lastReturned;
+
+                        @Override
+                        public boolean hasNext() {
+                            while (!current.hasNext() && shard < shards.length - 1) {
+                                current = shards[++shard].getStore().entrySet().iterator();
+                            }
+                            return current.hasNext();
+                        }
+
+                        @Override
+                        public Entry<K, V> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<K, V> entry = current.next();
+                            lastReturned = current;
+                            return entry;
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (lastReturned == null) {
+                                throw new IllegalStateException();
+                            }
+                            lastReturned.remove();
+                            lastReturned = null;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return ShardedVariousTtlMap.this.size();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.github.mchernyakov.variousttlmap;
+
+/**
+ * How the map keeps values and their expiration time.
+ */
+public enum StorageMode {
+
+    /**
+     * Two maps: values in {@link java.util.concurrent.ConcurrentHashMap},
+     * expiration time in {@link com.github.mchernyakov.variousttlmap.applied.TtlIndex} keyed by key hash, see {@link TtlIndexEngine}.
+     * <p>
+     * Keys with the same hash share the expiration time.
+     */
+    TTL_INDEX,
+
+    /**
+     * One map: every entry is a single node with the value and its expiration time.
+     * <p>
+     * Reads need one lookup and no lock, the expiration time belongs to the key itself.
+     */
+    SINGLE_ENTRY,
+
+    /**
+     * Serialized values in direct memory, keys and small handles in {@link java.util.concurrent.ConcurrentHashMap}.
+     * <p>
+     * Needs a serializer of values, see {@link VariousTtlMapImpl.Builder#setValueSerializer(Serializer)}.
+     * Every read deserializes the value.
+     *
+     * @see com.github.mchernyakov.variousttlmap.applied.storage.OffHeapValueStorage
+     */
+    OFF_HEAP_VALUES
+}
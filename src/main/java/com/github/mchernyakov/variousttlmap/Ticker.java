@@ -0,0 +1,27 @@
+package com.github.mchernyakov.variousttlmap;
+
+/**
+ * Source of time of the map, nanos with an arbitrary origin like {@link System#nanoTime()}.
+ * <p>
+ * Expiration time of the keys is read from the ticker, see {@link VariousTtlMapImpl.Builder#setTicker(Ticker)}.
+ * Durations in the stats are always measured with {@link System#nanoTime()}.
+ */
+@FunctionalInterface
+public interface Ticker {
+
+    long read();
+
+    /**
+     * @return {@link System#nanoTime()}
+     */
+    static Ticker systemTicker() {
+        return System::nanoTime;
+    }
+
+    /**
+     * @return shared ticker which is updated every millisecond by a background thread, see {@link CoarseTicker}
+     */
+    static Ticker coarseTicker() {
+        return CoarseTicker.INSTANCE;
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.mchernyakov.variousttlmap;
+
+import com.github.mchernyakov.variousttlmap.applied.OffHeapTtlIndex;
+import com.github.mchernyakov.variousttlmap.applied.PrimitiveMapWrapper;
+import com.github.mchernyakov.variousttlmap.applied.StampedLockTtlIndex;
+import com.github.mchernyakov.variousttlmap.applied.TtlIndex;
+
+import java.util.function.Supplier;
+
+/**
+ * Engines of the map for ttl in {@link StorageMode#TTL_INDEX} mode.
+ * <p>
+ * Any other {@link Supplier} of {@link TtlIndex} can be passed to the builder as well.
+ */
+public enum TtlIndexEngine implements Supplier<TtlIndex> {
+
+    /**
+     * Striped {@link it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap} guarded by {@link java.util.concurrent.locks.ReentrantReadWriteLock}.
+     */
+    READ_WRITE_LOCK {
+        @Override
+        public TtlIndex get() {
+            return new PrimitiveMapWrapper();
+        }
+    },
+
+    /**
+     * Striped {@link it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap} guarded by {@link java.util.concurrent.locks.StampedLock},
+     * reads are optimistic and take no lock without concurrent writes.
+     */
+    STAMPED_LOCK {
+        @Override
+        public TtlIndex get() {
+            return new StampedLockTtlIndex();
+        }
+    },
+
+    /**
+     * Open addressing hash table in direct buffers with the default initial capacity,
+     * use {@code () -> new OffHeapTtlIndex(capacity)} to set the capacity.
+     */
+    OFF_HEAP {
+        @Override
+        public TtlIndex get() {
+            return new OffHeapTtlIndex();
+        }
+    }
+}
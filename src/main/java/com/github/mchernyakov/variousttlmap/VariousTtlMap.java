@@ -4,7 +4,10 @@ import com.github.mchernyakov.variousttlmap.applied.cleaner.BackgroundMapCleaner
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 public interface VariousTtlMap<K, V> {
 
@@ -17,6 +20,47 @@ public interface VariousTtlMap<K, V> {
 
     V remove(@NotNull K key);
 
+    /**
+     * Puts all entries with the default ttl, one by one if not overridden.
+     */
+    default void putAll(@NotNull Map<? extends K, ? extends V> map) {
+        map.forEach(this::put);
+    }
+
+    /**
+     * Puts all entries with the same ttl, one by one if not overridden.
+     */
+    default void putAll(@NotNull Map<? extends K, ? extends V> map, long ttl) {
+        map.forEach((key, value) -> put(key, value, ttl));
+    }
+
+    /**
+     * @return keys which are present and not expired with their values
+     */
+    default Map<K, V> getAll(@NotNull Collection<? extends K> keys) {
+        Map<K, V> res = new HashMap<>();
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null) {
+                res.put(key, value);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return number of removed keys
+     */
+    default int removeAll(@NotNull Collection<? extends K> keys) {
+        int removed = 0;
+        for (K key : keys) {
+            if (remove(key) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
     void clear();
 
     int size();
@@ -28,4 +72,12 @@ public interface VariousTtlMap<K, V> {
     Map<K, V> getStore();
 
     BackgroundMapCleaner<K, V> getMapCleaner();
+
+    /**
+     * @param executor executor of the operations of the view
+     * @return asynchronous view of the map with write coalescing
+     */
+    default AsyncVariousTtlMap<K, V> async(@NotNull Executor executor) {
+        return new AsyncVariousTtlMapView<>(this, executor);
+    }
 }
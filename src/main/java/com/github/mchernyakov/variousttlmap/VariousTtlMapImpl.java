@@ -1,105 +1,592 @@
 package com.github.mchernyakov.variousttlmap;
 
-import com.github.mchernyakov.variousttlmap.applied.PrimitiveMapWrapper;
+import com.github.mchernyakov.variousttlmap.aof.FsyncPolicy;
+import com.github.mchernyakov.variousttlmap.applied.TtlIndex;
 import com.github.mchernyakov.variousttlmap.applied.cleaner.BackgroundMapCleaner;
+import com.github.mchernyakov.variousttlmap.applied.cleaner.CleanableMap;
+import com.github.mchernyakov.variousttlmap.applied.cleaner.CleanerScheduler;
+import com.github.mchernyakov.variousttlmap.applied.cleaner.CleanerType;
+import com.github.mchernyakov.variousttlmap.applied.cleaner.SamplingMode;
+import com.github.mchernyakov.variousttlmap.applied.eviction.SampledEvictor;
+import com.github.mchernyakov.variousttlmap.applied.eviction.SampledLruEvictor;
+import com.github.mchernyakov.variousttlmap.applied.eviction.SampledWeightEvictor;
+import com.github.mchernyakov.variousttlmap.applied.storage.EntryStorage;
+import com.github.mchernyakov.variousttlmap.applied.storage.LoggedStorage;
+import com.github.mchernyakov.variousttlmap.applied.storage.OffHeapValueStorage;
+import com.github.mchernyakov.variousttlmap.applied.storage.Storage;
+import com.github.mchernyakov.variousttlmap.applied.storage.TtlIndexStorage;
+import com.github.mchernyakov.variousttlmap.snapshot.SnapshotReader;
+import com.github.mchernyakov.variousttlmap.snapshot.SnapshotWriter;
+import com.github.mchernyakov.variousttlmap.stats.CacheStats;
+import com.github.mchernyakov.variousttlmap.stats.ConcurrentStatsCounter;
+import com.github.mchernyakov.variousttlmap.stats.StatsCounter;
+import com.github.mchernyakov.variousttlmap.stats.VariousTtlMapStats;
 import com.github.mchernyakov.variousttlmap.util.Preconditions;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * The Map with various ttl for keys.
  * <p>
- * This implementation contains 2 maps :
- * 1) store (key + value) {@link VariousTtlMapImpl#store},
- * 2) map for ttl (key + ttl (when keys will be expired)) {@link VariousTtlMapImpl#ttlMap}.
+ * Keys, values and ttl are kept in {@link VariousTtlMapImpl#storage}, see {@link StorageMode}:
+ * 1) {@link StorageMode#TTL_INDEX} - 2 maps, store (key + value) and map for ttl (key hash + ttl) {@link TtlIndexStorage},
+ * 2) {@link StorageMode#SINGLE_ENTRY} - 1 map, key + entry (value + ttl) {@link EntryStorage}.
  * <p>
  * This implementation has two variants of cleaning:
  * 1) passive via {@link VariousTtlMapImpl#get(Object)},
  * 2) active via {@link BackgroundMapCleaner}.
+ * <p>
+ * Bulk operations read the clock once per batch and pass the batch to the storage,
+ * {@link VariousTtlMapImpl#getAll(Collection)} leaves expired keys to the cleaner.
+ * <p>
+ * Loading via {@link VariousTtlMapImpl#computeIfAbsent(Object, Function, long)} is single-flight:
+ * concurrent misses of a key wait for the one load in {@link VariousTtlMapImpl#loading}.
+ * With {@link Builder#setRefreshAheadPercent(int)} a loading get in the last percents of the ttl
+ * returns the value and starts one reload on {@link VariousTtlMapImpl#refreshExecutor}.
+ * With {@link Builder#setStaleGraceSeconds(long)} expired keys are kept for the grace period
+ * and a loading get returns the stale value while the reload runs.
+ * <p>
+ * With {@link Builder#setMaximumSize(long)} a write to the full map evicts keys, see {@link SampledLruEvictor},
+ * with {@link Builder#setMaximumWeight(long)} - by weight, see {@link SampledWeightEvictor}.
+ * <p>
+ * Both are counted in {@link VariousTtlMapImpl#stats()} if stats are on, see {@link Builder#recordStats()}.
+ * <p>
+ * {@link VariousTtlMapImpl#snapshot(Path)} writes the entries to a file, {@link Builder#restoreFrom(Path)} loads them
+ * into a new map, see {@link SnapshotWriter}. Both need {@link Builder#setKeySerializer(Serializer)}
+ * and {@link Builder#setValueSerializer(Serializer)}, as well as the append-only log of changes,
+ * see {@link Builder#setAppendOnlyLog(Path)}.
+ * <p>
+ * With {@link Builder#setRemovalListener(RemovalListener)} removed entries and their {@link RemovalCause}
+ * are delivered to the listener on {@link Builder#setRemovalExecutor(Executor)}, see {@link RemovalDispatcher}.
+ * Bulk writes and {@link VariousTtlMapImpl#clear()} go key by key then, to get the removed values.
+ * <p>
+ * With {@link Builder#expireAfterAccess(long, TimeUnit)} a read moves the expiration time of the key,
+ * at most once per {@link VariousTtlMapImpl#ACCESS_STEP_PERCENT} of the duration, see {@link Storage#extendExpiration(Object, long, long)}.
+ * <p>
+ * Time is read from {@link Builder#setTicker(Ticker)}, e.g. {@link Ticker#coarseTicker()} saves the clock call
+ * of every operation at the cost of a millisecond of precision.
  *
  * @param <K> key
  * @param <V> value
  */
-public class VariousTtlMapImpl<K, V> implements VariousTtlMap<K, V> {
+public class VariousTtlMapImpl<K, V> implements VariousTtlMap<K, V>, CleanableMap<K> {
+    private static final Logger logger = LoggerFactory.getLogger(VariousTtlMapImpl.class);
+
+    private static final int ACCESS_STEP_PERCENT = 1;
 
-    private final ConcurrentHashMap<K, V> store;
-    private final PrimitiveMapWrapper ttlMap;
+    private final Storage<K, V> storage;
     private final BackgroundMapCleaner<K, V> mapCleaner;
+    private final StatsCounter statsCounter;
+    private final VariousTtlMapStats statsMBean;
+    private final SampledEvictor<K, V> evictor;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
 
     private final long defaultTtl;
     private final TimeUnit timeUnit = TimeUnit.SECONDS;
+    private final Ticker ticker;
+
+    private final int refreshAheadPercent;
+    private final long staleGrace;
+    private final long expireAfterAccess;
+    private final long accessStep;
+    private final Executor refreshExecutor;
+
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+
+    private final RemovalDispatcher<K, V> removalDispatcher;
 
     private VariousTtlMapImpl(Builder<K, V> builder) {
         Preconditions.checkArgument(builder.defaultTtl > 0);
+        Preconditions.checkNotNull(builder.storageMode);
+        Preconditions.checkNotNull(builder.ttlIndexEngine);
+        Preconditions.checkArgument(builder.refreshAheadPercent >= 0 && builder.refreshAheadPercent < 100);
+        Preconditions.checkArgument(builder.staleGraceSeconds >= 0);
+        Preconditions.checkArgument(builder.expireAfterAccessNanos >= 0);
+        Preconditions.checkArgument(builder.maximumSize >= 0);
+        Preconditions.checkArgument(builder.maximumWeight >= 0);
+        Preconditions.checkArgument(builder.maximumSize == 0 || builder.maximumWeight == 0);
+        Preconditions.checkArgument((builder.maximumWeight > 0) == (builder.weigher != null));
+        // access time and weight are kept in the entries
+        Preconditions.checkArgument(builder.maximumSize == 0 && builder.maximumWeight == 0
+                || builder.storageMode == StorageMode.SINGLE_ENTRY);
+        Preconditions.checkArgument(builder.storageMode != StorageMode.OFF_HEAP_VALUES || builder.valueSerializer != null);
+        Preconditions.checkArgument(builder.restorePath == null && builder.appendOnlyLogPath == null
+                || builder.keySerializer != null && builder.valueSerializer != null);
+        Preconditions.checkNotNull(builder.fsyncPolicy);
+        Preconditions.checkArgument(builder.removalQueueCapacity > 0);
 
         defaultTtl = timeUnit.toNanos(builder.defaultTtl);
-        store = new ConcurrentHashMap<>();
-        ttlMap = new PrimitiveMapWrapper();
+        ticker = Preconditions.checkNotNull(builder.ticker);
+        refreshAheadPercent = builder.refreshAheadPercent;
+        staleGrace = timeUnit.toNanos(builder.staleGraceSeconds);
+        expireAfterAccess = builder.expireAfterAccessNanos;
+        accessStep = expireAfterAccess / 100 * ACCESS_STEP_PERCENT;
+        refreshExecutor = Preconditions.checkNotNull(builder.refreshExecutor);
+        keySerializer = builder.keySerializer;
+        valueSerializer = builder.valueSerializer;
+        storage = createStorage(builder);
+        statsCounter = builder.recordStats ? new ConcurrentStatsCounter() : StatsCounter.disabled();
+        removalDispatcher = builder.removalListener != null
+                ? new RemovalDispatcher<>(builder.removalListener, builder.removalExecutor, builder.removalQueueCapacity)
+                : null;
+        evictor = createEvictor(builder, storage, statsCounter, removalDispatcher);
 
         mapCleaner = BackgroundMapCleaner.Builder
                 .newBuilder()
                 .setPoolSize(builder.cleaningPoolSize)
                 .setDelayTime(builder.delayMillis)
+                .setAdaptiveDelayTime(builder.minDelayMillis, builder.maxDelayMillis)
+                .setSessionBudget(builder.sessionBudgetMillis)
                 .setNumKeyCheck(builder.numCleaningAttemptsPerSession)
                 .setPercentWaterMark(builder.waterMarkPercent)
+                .setType(builder.cleanerType)
+                .setSamplingMode(builder.samplingMode)
+                .setScheduler(builder.cleanerScheduler)
                 .build(this);
 
+        if (builder.appendOnlyLogPath != null) {
+            // timers of the replayed keys
+            for (K key : storage.asMap().keySet()) {
+                mapCleaner.onWrite(key, storage.getExpiration(key) + staleGrace);
+            }
+        }
+        if (builder.restorePath != null) {
+            restore(builder.restorePath);
+        }
+
         mapCleaner.startCleaners();
+
+        statsMBean = builder.statsMBeanName != null ? VariousTtlMapStats.register(this, builder.statsMBeanName) : null;
+    }
+
+    private static <K, V> Storage<K, V> createStorage(Builder<K, V> builder) {
+        Storage<K, V> storage;
+        switch (builder.storageMode) {
+            case SINGLE_ENTRY:
+                storage = new EntryStorage<>(builder.maximumSize > 0, builder.weigher, builder.ticker);
+                break;
+            case OFF_HEAP_VALUES:
+                storage = new OffHeapValueStorage<>(builder.valueSerializer);
+                break;
+            case TTL_INDEX:
+            default:
+                storage = new TtlIndexStorage<>(Preconditions.checkNotNull(builder.ttlIndexEngine.get()));
+        }
+        if (builder.appendOnlyLogPath == null) {
+            return storage;
+        }
+        try {
+            return new LoggedStorage<>(storage, builder.appendOnlyLogPath, builder.fsyncPolicy,
+                    builder.keySerializer, builder.valueSerializer, builder.logRewriteMinBytes, builder.ticker);
+        } catch (IOException e) {
+            storage.release();
+            throw new UncheckedIOException("Can't open the append-only log " + builder.appendOnlyLogPath, e);
+        }
     }
 
     @Override
     @Nullable
     public V get(@NotNull K key) {
-        if (checkExpired(key)) {
-            remove(key);
-            return null;
+        long now = ticker.read();
+        V value = storage.get(key, now);
+        if (value != null) {
+            statsCounter.recordHit();
+            if (expireAfterAccess > 0) {
+                extendExpiration(key, now);
+            }
         } else {
-            return this.store.get(key);
+            statsCounter.recordMiss();
+            V expired = storage.removeIfExpired(key, now - staleGrace);
+            if (expired != null) {
+                mapCleaner.onRemove(key);
+                statsCounter.recordExpiredOnRead();
+                notifyRemoval(key, expired, RemovalCause.EXPIRED);
+            }
+        }
+        return value;
+    }
+
+    private void extendExpiration(@NotNull K key, long now) {
+        long expiration = now + expireAfterAccess;
+        if (storage.extendExpiration(key, expiration, accessStep)) {
+            mapCleaner.onWrite(key, expiration + staleGrace);
+        }
+    }
+
+    /**
+     * Returns the value or loads it with the default ttl, see {@link VariousTtlMapImpl#computeIfAbsent(Object, Function, long)}.
+     */
+    @Nullable
+    public V get(@NotNull K key, @NotNull Function<? super K, ? extends V> loader) {
+        return computeIfAbsent(key, loader, defaultTtl, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the value or loads it if the key is absent or expired.
+     * The loader runs once per key at a time, concurrent callers wait for its result.
+     * Null from the loader is returned and not stored, an exception of the loader is thrown to all waiting callers.
+     */
+    @Nullable
+    public V computeIfAbsent(@NotNull K key, @NotNull Function<? super K, ? extends V> loader, long ttlSeconds) {
+        return computeIfAbsent(key, loader, ttlSeconds, timeUnit);
+    }
+
+    private V computeIfAbsent(@NotNull K key, @NotNull Function<? super K, ? extends V> loader, long ttl, TimeUnit unit) {
+        V value = get(key);
+        if (value != null) {
+            if (refreshAheadPercent > 0) {
+                long ttlNanos = unit.toNanos(ttl);
+                if (storage.getExpiration(key) - ticker.read() < ttlNanos / 100 * refreshAheadPercent) {
+                    refresh(key, loader, ttlNanos);
+                }
+            }
+            return value;
+        }
+
+        if (staleGrace > 0) {
+            V stale = storage.get(key, ticker.read() - staleGrace);
+            if (stale != null) {
+                refresh(key, loader, unit.toNanos(ttl));
+                return stale;
+            }
+        }
+
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loading.putIfAbsent(key, future);
+        if (inFlight != null) {
+            return join(inFlight);
+        }
+
+        try {
+            // the previous load could finish between the get and the putIfAbsent
+            value = storage.get(key, ticker.read());
+            if (value == null) {
+                value = load(key, loader);
+                if (value != null) {
+                    putWithExpiration(key, value, ticker.read() + unit.toNanos(ttl));
+                }
+            }
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * Starts a reload of the key unless the key is being loaded.
+     */
+    private void refresh(@NotNull K key, @NotNull Function<? super K, ? extends V> loader, long ttlNanos) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        if (loading.putIfAbsent(key, future) != null) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    V value = load(key, loader);
+                    if (value != null) {
+                        putWithExpiration(key, value, ticker.read() + ttlNanos);
+                    }
+                    future.complete(value);
+                } catch (RuntimeException | Error e) {
+                    logger.warn("Error while refreshing key {}", key, e);
+                    future.completeExceptionally(e);
+                } finally {
+                    loading.remove(key, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Refresh of key {} is rejected", key, e);
+            loading.remove(key, future);
+            future.completeExceptionally(e);
+        }
+    }
+
+    private V load(@NotNull K key, @NotNull Function<? super K, ? extends V> loader) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            V value = loader.apply(key);
+            success = value != null;
+            return value;
+        } finally {
+            statsCounter.recordLoad(System.nanoTime() - start, success);
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
         }
     }
 
     @Override
     public V put(@NotNull K key, V value) {
-        ttlMap.put(key.hashCode(), System.nanoTime() + defaultTtl);
-        return store.put(key, value);
+        return putWithExpiration(key, value, ticker.read() + defaultTtl);
     }
 
     @Override
     public V put(@NotNull K key, V value, long ttlSeconds) {
-        ttlMap.put(key.hashCode(), System.nanoTime() + timeUnit.toNanos(ttlSeconds));
-        return store.put(key, value);
+        return putWithExpiration(key, value, ticker.read() + timeUnit.toNanos(ttlSeconds));
+    }
+
+    /**
+     * Writes the entries which are not expired and their remaining ttl to the file, see {@link SnapshotWriter}.
+     * The entries are read one by one and nothing is locked for the whole snapshot,
+     * so writes during the snapshot may or may not get into it.
+     *
+     * The previous snapshot at the path is replaced only if all entries were written.
+     *
+     * @return number of written entries
+     * @throws IllegalStateException if the key or value serializer is not set
+     */
+    public long snapshot(@NotNull Path path) throws IOException {
+        if (keySerializer == null || valueSerializer == null) {
+            throw new IllegalStateException("snapshot needs key and value serializers");
+        }
+        try (SnapshotWriter<K, V> writer = new SnapshotWriter<>(path, keySerializer, valueSerializer)) {
+            for (Map.Entry<K, V> entry : storage.asMap().entrySet()) {
+                K key = entry.getKey();
+                V value = entry.getValue();
+                long remainingTtl = storage.getExpiration(key) - ticker.read();
+                if (value != null && remainingTtl > 0) {
+                    writer.write(key, value, remainingTtl);
+                }
+            }
+            writer.commit();
+            return writer.count();
+        }
+    }
+
+    private void restore(@NotNull Path path) {
+        if (!Files.exists(path)) {
+            logger.info("No snapshot {}, the map starts empty", path);
+            return;
+        }
+        try {
+            long restored = SnapshotReader.read(path, keySerializer, valueSerializer,
+                    (key, value, remainingTtl) -> putWithExpiration(key, value, ticker.read() + remainingTtl));
+            logger.info("Restored {} entries from {}", restored, path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't restore the map from " + path, e);
+        }
+    }
+
+    private V putWithExpiration(@NotNull K key, V value, long expiration) {
+        V oldValue = putAndNotify(key, value, expiration);
+        mapCleaner.onWrite(key, expiration + staleGrace);
+        evictIfNeeded();
+        return oldValue;
+    }
+
+    @Override
+    public void putAll(@NotNull Map<? extends K, ? extends V> map) {
+        putAllWithExpiration(map, ticker.read() + defaultTtl);
+    }
+
+    @Override
+    public void putAll(@NotNull Map<? extends K, ? extends V> map, long ttlSeconds) {
+        putAllWithExpiration(map, ticker.read() + timeUnit.toNanos(ttlSeconds));
+    }
+
+    private V putAndNotify(@NotNull K key, V value, long expiration) {
+        if (removalDispatcher == null) {
+            return storage.put(key, value, expiration);
+        }
+        // an overwritten value which is out of its ttl is reported as expired
+        boolean expired = storage.isExpired(key, ticker.read());
+        V oldValue = storage.put(key, value, expiration);
+        notifyRemoval(key, oldValue, expired ? RemovalCause.EXPIRED : RemovalCause.REPLACED);
+        return oldValue;
+    }
+
+    private void notifyRemoval(@NotNull K key, @Nullable V value, RemovalCause cause) {
+        if (removalDispatcher != null && value != null) {
+            removalDispatcher.onRemoval(key, value, cause);
+        }
+    }
+
+    private void putAllWithExpiration(@NotNull Map<? extends K, ? extends V> map, long expiration) {
+        if (removalDispatcher == null) {
+            storage.putAll(map, expiration);
+        } else {
+            map.forEach((key, value) -> putAndNotify(key, value, expiration));
+        }
+        for (K key : map.keySet()) {
+            mapCleaner.onWrite(key, expiration + staleGrace);
+        }
+        evictIfNeeded();
+    }
+
+    private void evictIfNeeded() {
+        if (evictor != null) {
+            evictor.evictIfNeeded(ticker.read() - staleGrace);
+        }
+    }
+
+    @Override
+    public Map<K, V> getAll(@NotNull Collection<? extends K> keys) {
+        long now = ticker.read();
+        Map<K, V> res = storage.getAll(keys, now);
+        if (expireAfterAccess > 0) {
+            for (K key : res.keySet()) {
+                extendExpiration(key, now);
+            }
+        }
+        statsCounter.recordHits(res.size());
+        statsCounter.recordMisses(keys.size() - res.size());
+        return res;
+    }
+
+    @Override
+    public int removeAll(@NotNull Collection<? extends K> keys) {
+        if (removalDispatcher == null) {
+            int removed = storage.removeAll(keys);
+            for (K key : keys) {
+                mapCleaner.onRemove(key);
+            }
+            return removed;
+        }
+        int removed = 0;
+        for (K key : keys) {
+            if (remove(key) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    @Nullable
+    private static <K, V> SampledEvictor<K, V> createEvictor(Builder<K, V> builder, Storage<K, V> storage, StatsCounter statsCounter,
+                                                          @Nullable RemovalListener<K, V> removalListener) {
+        if (builder.maximumSize > 0) {
+            return new SampledLruEvictor<>(storage, statsCounter, removalListener, builder.maximumSize);
+        }
+        if (builder.maximumWeight > 0) {
+            return new SampledWeightEvictor<>(storage, statsCounter, removalListener, builder.maximumWeight);
+        }
+        return null;
     }
 
     @Override
     public int size() {
-        return store.size();
+        return storage.size();
+    }
+
+    /**
+     * @return total weight of the entries, see {@link Builder#setWeigher(Weigher)}; the number of entries without a weigher
+     */
+    public long weightedSize() {
+        return storage.weightedSize();
     }
 
     @Override
     public V remove(@NotNull K key) {
-        ttlMap.remove(key.hashCode());
-        return store.remove(key);
+        V value = storage.remove(key);
+        if (value != null) {
+            mapCleaner.onRemove(key);
+        }
+        notifyRemoval(key, value, RemovalCause.EXPLICIT);
+        return value;
     }
 
     @Override
     public void clear() {
-        store.clear();
-        ttlMap.clear();
+        mapCleaner.onClear();
+        if (removalDispatcher == null) {
+            storage.clear();
+        } else {
+            storage.asMap().keySet().forEach(this::remove);
+        }
     }
 
     public boolean checkExpired(@NotNull K key) {
-        long ttl = ttlMap.get(key.hashCode());
+        return storage.isExpired(key, ticker.read());
+    }
 
-        return System.nanoTime() > ttl;
+    /**
+     * Removes the key if it is expired (and out of the stale grace period).
+     *
+     * @return true if the key was removed
+     */
+    @Override
+    public boolean removeIfExpired(@NotNull K key) {
+        V value = storage.removeIfExpired(key, ticker.read() - staleGrace);
+        notifyRemoval(key, value, RemovalCause.EXPIRED);
+        return value != null;
+    }
+
+    /**
+     * @return random key (expired or not) or null if the map is empty
+     */
+    @Nullable
+    public K randomKey() {
+        return storage.randomKey(0, 1);
+    }
+
+    /**
+     * Stripes are disjoint ranges of the backing table of the map.
+     *
+     * @param stripe     number of the stripe, from 0 to numStripes
+     * @param numStripes power of two
+     * @return random key (expired or not) of the stripe or null if there is no key
+     */
+    @Override
+    @Nullable
+    public K randomKey(int stripe, int numStripes) {
+        return storage.randomKey(stripe, numStripes);
+    }
+
+    /**
+     * @return live view of the keys (expired ones too)
+     */
+    @Override
+    public Set<K> keySet() {
+        return storage.asMap().keySet();
+    }
+
+    @Override
+    public boolean containsKey(@NotNull K key) {
+        return storage.asMap().containsKey(key);
     }
 
     @Override
     public Map<K, V> getStore() {
-        return store;
+        return storage.asMap();
     }
 
     @Override
@@ -107,22 +594,63 @@ public class VariousTtlMapImpl<K, V> implements VariousTtlMap<K, V> {
         return mapCleaner;
     }
 
+    /**
+     * @return snapshot of the stats, empty if stats are off
+     */
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    @Override
+    public void reclaim() {
+        storage.reclaim();
+    }
+
+    @Override
+    public StatsCounter getStatsCounter() {
+        return statsCounter;
+    }
+
+    @Override
+    public Ticker getTicker() {
+        return ticker;
+    }
+
+    /**
+     * @return number of removal notifications dropped because the queue was full, see {@link Builder#setRemovalQueueCapacity(int)}
+     */
+    public long droppedRemovalNotifications() {
+        return removalDispatcher != null ? removalDispatcher.dropped() : 0;
+    }
+
+    /**
+     * @return bytes of memory allocated outside of the heap, e.g. by {@link TtlIndexEngine#OFF_HEAP}
+     */
+    public long offHeapBytes() {
+        return storage.offHeapBytes();
+    }
+
     @Override
     public void shutdown() {
+        if (statsMBean != null) {
+            statsMBean.unregister();
+        }
         mapCleaner.shutdown();
-        clear();
+        // the append-only log is closed first, so the map is cleared but not in the log
+        storage.release();
+        // no removal notifications for the entries of a map which is shut down
+        storage.clear();
     }
 
     @Override
     public boolean isEmpty() {
-        return store.isEmpty();
+        return storage.isEmpty();
     }
 
     @Override
     public String toString() {
         return "VariousTtlMapImpl{" +
-                "store=" + store +
-                ", ttlMap=" + ttlMap +
+                "storage=" + storage +
                 ", mapCleaner=" + mapCleaner +
                 ", defaultTtl=" + defaultTtl +
                 ", timeUnit=" + timeUnit +
@@ -135,6 +663,33 @@ public class VariousTtlMapImpl<K, V> implements VariousTtlMap<K, V> {
         int numCleaningAttemptsPerSession = 10;
         int waterMarkPercent = 10;
         int delayMillis = 1000;
+        int minDelayMillis = 10;
+        int maxDelayMillis;
+        int sessionBudgetMillis;
+        boolean recordStats;
+        String statsMBeanName;
+        int refreshAheadPercent;
+        long staleGraceSeconds;
+        long expireAfterAccessNanos;
+        Executor refreshExecutor = ForkJoinPool.commonPool();
+        long maximumSize;
+        long maximumWeight;
+        Weigher<? super K, ? super V> weigher;
+        Serializer<K> keySerializer;
+        Serializer<V> valueSerializer;
+        Path restorePath;
+        Path appendOnlyLogPath;
+        FsyncPolicy fsyncPolicy = FsyncPolicy.EVERY_SECOND;
+        long logRewriteMinBytes = 64 << 20;
+        RemovalListener<? super K, ? super V> removalListener;
+        Executor removalExecutor = ForkJoinPool.commonPool();
+        int removalQueueCapacity = 1 << 16;
+        Ticker ticker = Ticker.systemTicker();
+        StorageMode storageMode = StorageMode.TTL_INDEX;
+        CleanerType cleanerType = CleanerType.RANDOM_SAMPLING;
+        SamplingMode samplingMode = SamplingMode.SNAPSHOT;
+        CleanerScheduler cleanerScheduler;
+        Supplier<? extends TtlIndex> ttlIndexEngine = TtlIndexEngine.READ_WRITE_LOCK;
 
         private Builder() {
         }
@@ -168,10 +723,271 @@ public class VariousTtlMapImpl<K, V> implements VariousTtlMap<K, V> {
             return this;
         }
 
+        /**
+         * Shortest interval between cleaning sessions in the adaptive mode, see {@link #setMaxDelayMillis(int)}.
+         */
+        public Builder<K, V> setMinDelayMillis(int minDelayMillis) {
+            this.minDelayMillis = minDelayMillis;
+            return this;
+        }
+
+        /**
+         * Enables the adaptive mode of {@link CleanerType#RANDOM_SAMPLING} cleaners: the interval between sessions
+         * is halved while sessions find more expired keys than the water mark and doubled up to this value while they don't.
+         * {@link #setDelayMillis(int)} is the initial interval.
+         */
+        public Builder<K, V> setMaxDelayMillis(int maxDelayMillis) {
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * Time budget of a cleaning session of {@link CleanerType#RANDOM_SAMPLING} cleaners, 0 - no budget (default).
+         * A session out of time stops and the next one continues.
+         */
+        public Builder<K, V> setSessionBudgetMillis(int sessionBudgetMillis) {
+            this.sessionBudgetMillis = sessionBudgetMillis;
+            return this;
+        }
+
+        /**
+         * Enables {@link VariousTtlMapImpl#stats()}, stats are off by default.
+         */
+        public Builder<K, V> recordStats() {
+            this.recordStats = true;
+            return this;
+        }
+
+        /**
+         * Enables stats and registers them as {@link com.github.mchernyakov.variousttlmap.stats.VariousTtlMapStatsMXBean}
+         * with the name, the mbean is unregistered by {@link VariousTtlMapImpl#shutdown()}.
+         */
+        public Builder<K, V> setStatsMBeanName(String statsMBeanName) {
+            this.recordStats = true;
+            this.statsMBeanName = statsMBeanName;
+            return this;
+        }
+
+        /**
+         * A loading get in the last percents of the ttl of the key starts an asynchronous reload,
+         * 0 - no refresh (default).
+         */
+        public Builder<K, V> setRefreshAheadPercent(int refreshAheadPercent) {
+            this.refreshAheadPercent = refreshAheadPercent;
+            return this;
+        }
+
+        /**
+         * Expired keys are kept for the grace period, a loading get returns the stale value and starts a reload.
+         * Plain {@link VariousTtlMapImpl#get(Object)} never returns stale values. 0 - no grace (default).
+         */
+        public Builder<K, V> setStaleGraceSeconds(long staleGraceSeconds) {
+            this.staleGraceSeconds = staleGraceSeconds;
+            return this;
+        }
+
+        /**
+         * Sliding ttl: a read of the key moves its expiration time to the time of the read plus the duration,
+         * if that is later. A put sets the ttl as usual. 0 - off (default).
+         * <p>
+         * The move is lock-free in {@link StorageMode#SINGLE_ENTRY} and {@link StorageMode#OFF_HEAP_VALUES};
+         * in {@link StorageMode#TTL_INDEX} it takes the write lock of the stripe of the index.
+         * Either way it is done only when the expiration time moves by more than 1% of the duration.
+         */
+        public Builder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
+            this.expireAfterAccessNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Executor of the reloads, {@link ForkJoinPool#commonPool()} by default.
+         */
+        public Builder<K, V> setRefreshExecutor(Executor refreshExecutor) {
+            this.refreshExecutor = refreshExecutor;
+            return this;
+        }
+
+        /**
+         * Bound of the number of keys, 0 - no bound (default). Needs {@link StorageMode#SINGLE_ENTRY}.
+         * A write to the full map evicts the least recently used key of a random sample.
+         */
+        public Builder<K, V> setMaximumSize(long maximumSize) {
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Bound of the total weight of the entries, 0 - no bound (default).
+         * Needs {@link #setWeigher(Weigher)} and {@link StorageMode#SINGLE_ENTRY}, can't be used with {@link #setMaximumSize(long)}.
+         * A write to the full map evicts expired keys and keys closest to expiry of a random sample.
+         */
+        public Builder<K, V> setMaximumWeight(long maximumWeight) {
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        /**
+         * Weigher of the entries for {@link #setMaximumWeight(long)}, the weight of an entry is computed once per put.
+         */
+        @SuppressWarnings("unchecked")
+        public <K1 extends K, V1 extends V> Builder<K1, V1> setWeigher(Weigher<? super K1, ? super V1> weigher) {
+            Builder<K1, V1> self = (Builder<K1, V1>) this;
+            self.weigher = weigher;
+            return self;
+        }
+
+        /**
+         * Serializer of values, used (and required) in {@link StorageMode#OFF_HEAP_VALUES} mode and by snapshots.
+         */
+        @SuppressWarnings("unchecked")
+        public <K1 extends K, V1 extends V> Builder<K1, V1> setValueSerializer(Serializer<V1> valueSerializer) {
+            Builder<K1, V1> self = (Builder<K1, V1>) this;
+            self.valueSerializer = valueSerializer;
+            return self;
+        }
+
+        /**
+         * Serializer of keys for {@link VariousTtlMapImpl#snapshot(Path)} and {@link #restoreFrom(Path)}.
+         */
+        @SuppressWarnings("unchecked")
+        public <K1 extends K, V1 extends V> Builder<K1, V1> setKeySerializer(Serializer<K1> keySerializer) {
+            Builder<K1, V1> self = (Builder<K1, V1>) this;
+            self.keySerializer = keySerializer;
+            return self;
+        }
+
+        /**
+         * The built map loads the entries of the snapshot file which are still alive,
+         * their ttl is reduced by the time since the snapshot. If there is no file, the map starts empty.
+         * Needs the key and value serializers.
+         */
+        public Builder<K, V> restoreFrom(Path restorePath) {
+            this.restorePath = restorePath;
+            return this;
+        }
+
+        /**
+         * Enables the append-only log of changes, see {@link LoggedStorage}. The log is replayed when the map is built.
+         * Needs the key and value serializers.
+         */
+        public Builder<K, V> setAppendOnlyLog(Path appendOnlyLogPath) {
+            this.appendOnlyLogPath = appendOnlyLogPath;
+            return this;
+        }
+
+        /**
+         * When the append-only log is forced to disk, {@link FsyncPolicy#EVERY_SECOND} by default.
+         */
+        public Builder<K, V> setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+            this.fsyncPolicy = fsyncPolicy;
+            return this;
+        }
+
+        /**
+         * The append-only log is rewritten when it is bigger than this and twice the size after the last rewrite
+         * (bytes, default = 64 MB).
+         */
+        public Builder<K, V> setLogRewriteMinBytes(long logRewriteMinBytes) {
+            this.logRewriteMinBytes = logRewriteMinBytes;
+            return this;
+        }
+
+        /**
+         * Listener of removed entries, notifications are delivered asynchronously, see {@link RemovalDispatcher}.
+         */
+        @SuppressWarnings("unchecked")
+        public <K1 extends K, V1 extends V> Builder<K1, V1> setRemovalListener(RemovalListener<? super K1, ? super V1> removalListener) {
+            Builder<K1, V1> self = (Builder<K1, V1>) this;
+            self.removalListener = removalListener;
+            return self;
+        }
+
+        /**
+         * Executor of the removal listener, {@link ForkJoinPool#commonPool()} by default.
+         */
+        public Builder<K, V> setRemovalExecutor(Executor removalExecutor) {
+            this.removalExecutor = removalExecutor;
+            return this;
+        }
+
+        /**
+         * Bound of the removal notifications waiting for the listener (default = 65536), the rest are dropped
+         * and counted in {@link VariousTtlMapImpl#droppedRemovalNotifications()}.
+         */
+        public Builder<K, V> setRemovalQueueCapacity(int removalQueueCapacity) {
+            this.removalQueueCapacity = removalQueueCapacity;
+            return this;
+        }
+
+        /**
+         * Source of time for the ttl, {@link Ticker#systemTicker()} by default.
+         *
+         * @see Ticker#coarseTicker()
+         * @see ManualTicker
+         */
+        public Builder<K, V> setTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public Builder<K, V> setStorageMode(StorageMode storageMode) {
+            this.storageMode = storageMode;
+            return this;
+        }
+
+        /**
+         * Algorithm of active cleaning, {@link CleanerType#TIMING_WHEEL} uses {@link #setDelayMillis(int)} as the tick.
+         */
+        public Builder<K, V> setCleanerType(CleanerType cleanerType) {
+            this.cleanerType = cleanerType;
+            return this;
+        }
+
+        /**
+         * Where {@link CleanerType#RANDOM_SAMPLING} cleaners take keys to check.
+         */
+        public Builder<K, V> setSamplingMode(SamplingMode samplingMode) {
+            this.samplingMode = samplingMode;
+            return this;
+        }
+
+        /**
+         * Runs the cleaning sessions on the shared threads of the scheduler instead of the own threads of the map,
+         * {@link #setCleaningPoolSize(int)} is the number of jobs of the map then.
+         * The jobs are deregistered by {@link VariousTtlMapImpl#shutdown()}, the scheduler is shut down by its owner.
+         */
+        public Builder<K, V> setCleanerScheduler(CleanerScheduler cleanerScheduler) {
+            this.cleanerScheduler = cleanerScheduler;
+            return this;
+        }
+
+        /**
+         * Engine of the map for ttl, used in {@link StorageMode#TTL_INDEX} mode.
+         * Every map gets its own instance from the supplier.
+         *
+         * @see TtlIndexEngine
+         */
+        public Builder<K, V> setTtlIndexEngine(Supplier<? extends TtlIndex> ttlIndexEngine) {
+            this.ttlIndexEngine = ttlIndexEngine;
+            return this;
+        }
+
         @SuppressWarnings("unchecked")
         public <K1 extends K, V1 extends V> VariousTtlMapImpl<K1, V1> build() {
             Builder<K1, V1> self = (Builder<K1, V1>) this;
             return new VariousTtlMapImpl<>(self);
         }
+
+        /**
+         * Builds the map of independent shards of this configuration, see {@link ShardedVariousTtlMap}.
+         * Stats mbean, snapshot restore and append-only log are not supported.
+         *
+         * @param numShards number of shards, a power of two
+         */
+        @SuppressWarnings("unchecked")
+        public <K1 extends K, V1 extends V> ShardedVariousTtlMap<K1, V1> buildSharded(int numShards) {
+            Builder<K1, V1> self = (Builder<K1, V1>) this;
+            return new ShardedVariousTtlMap<>(self, numShards);
+        }
     }
 }
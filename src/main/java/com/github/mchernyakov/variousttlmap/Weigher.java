@@ -0,0 +1,18 @@
+package com.github.mchernyakov.variousttlmap;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Weight of an entry, e.g. its size in bytes, see {@link VariousTtlMapImpl.Builder#setWeigher(Weigher)}.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+
+    /**
+     * @return weight of the entry, not negative
+     */
+    int weigh(@NotNull K key, @NotNull V value);
+}
@@ -0,0 +1,547 @@
+package com.github.mchernyakov.variousttlmap.aof;
+
+import com.github.mchernyakov.variousttlmap.Serializer;
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import com.github.mchernyakov.variousttlmap.util.ThreadUtil;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only log of the changes of a map, like Redis AOF.
+ * <p>
+ * Writers encode their records and add them to {@link AppendOnlyLog#pending}, the log thread takes all pending
+ * records at once, writes them with one call and forces the file according to {@link FsyncPolicy} (group commit).
+ * With {@link FsyncPolicy#ALWAYS} the first record of a group wakes the log thread up
+ * and {@link AppendOnlyLog#awaitDurable(long)} waits for the force of the group,
+ * with other policies writers never wake it up, it takes the records every {@link AppendOnlyLog#FLUSH_INTERVAL}.
+ * <p>
+ * A put keeps the wall clock expiration time, so {@link AppendOnlyLog#replay} drops keys which expired meanwhile.
+ * A record cut by a crash at the end of the file is dropped and the file is truncated to the last whole record.
+ * <p>
+ * Rewrite: when the file is over {@link AppendOnlyLog#minRewriteSize} and twice the size after the last rewrite,
+ * a rewrite thread dumps the live entries into a temporary file while the log thread keeps appending to the old file
+ * and keeps a copy of the new records; then the copies are appended to the new file and it replaces the old one.
+ * <p>
+ * Layout (big-endian): magic (int), version (int); then records - operation (byte) and its fields:
+ * put - expiration (long, wall clock millis), key and value (length (int) and bytes); remove, expire - key; clear.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public final class AppendOnlyLog<K, V> implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(AppendOnlyLog.class);
+
+    private static final int MAGIC = 0x5654544C;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte EXPIRE = 3;
+    private static final byte CLEAR = 4;
+
+    private static final long SYNC_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final long FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path path;
+    private final Path tmpPath;
+    private final FsyncPolicy fsyncPolicy;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final long minRewriteSize;
+    private final Dumper<K, V> dumper;
+    private final Thread logThread;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition durable = lock.newCondition();
+    private List<byte[]> pending = new ArrayList<>();
+    private long appendedSeq;
+    private long durableSeq;
+    private boolean closed;
+    private Output dumped;
+    private boolean dumpFailed;
+    private IOException failure;
+
+    // owned by the log thread
+    private Output output;
+    private List<byte[]> rewriteCopies;
+    private long baseSize;
+    private long lastSync;
+    private boolean unsynced;
+
+    /**
+     * Opens the log for appending, call {@link AppendOnlyLog#replay} before.
+     *
+     * @param minRewriteSize the file is not rewritten while it is smaller, bytes
+     * @param dumper         writes the live entries of the map for a rewrite
+     */
+    public AppendOnlyLog(@NotNull Path path,
+                         @NotNull FsyncPolicy fsyncPolicy,
+                         @NotNull Serializer<K> keySerializer,
+                         @NotNull Serializer<V> valueSerializer,
+                         long minRewriteSize,
+                         @NotNull Dumper<K, V> dumper) throws IOException {
+        Preconditions.checkArgument(minRewriteSize > 0);
+        this.path = path;
+        this.tmpPath = path.resolveSibling(path.getFileName() + ".rewrite");
+        this.fsyncPolicy = Preconditions.checkNotNull(fsyncPolicy);
+        this.keySerializer = Preconditions.checkNotNull(keySerializer);
+        this.valueSerializer = Preconditions.checkNotNull(valueSerializer);
+        this.minRewriteSize = minRewriteSize;
+        this.dumper = Preconditions.checkNotNull(dumper);
+
+        output = new Output(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE));
+        if (output.size == 0) {
+            output.write(header());
+            output.force();
+        }
+        lastSync = System.nanoTime();
+
+        logThread = ThreadUtil.threadFactory("map-aof").newThread(this::run);
+        logThread.start();
+    }
+
+    public long appendPut(@NotNull K key, @NotNull V value, long expireAtMillis) {
+        return append(putRecord(key, value, expireAtMillis));
+    }
+
+    public long appendRemove(@NotNull K key) {
+        return append(keyRecord(REMOVE, key));
+    }
+
+    public long appendExpire(@NotNull K key) {
+        return append(keyRecord(EXPIRE, key));
+    }
+
+    public long appendClear() {
+        return append(new byte[]{CLEAR});
+    }
+
+    private byte[] putRecord(K key, V value, long expireAtMillis) {
+        byte[] keyBytes = keySerializer.serialize(key);
+        byte[] valueBytes = valueSerializer.serialize(value);
+        return ByteBuffer.allocate(1 + Long.BYTES + 2 * Integer.BYTES + keyBytes.length + valueBytes.length)
+                .put(PUT)
+                .putLong(expireAtMillis)
+                .putInt(keyBytes.length)
+                .put(keyBytes)
+                .putInt(valueBytes.length)
+                .put(valueBytes)
+                .array();
+    }
+
+    private byte[] keyRecord(byte operation, K key) {
+        byte[] keyBytes = keySerializer.serialize(key);
+        return ByteBuffer.allocate(1 + Integer.BYTES + keyBytes.length)
+                .put(operation)
+                .putInt(keyBytes.length)
+                .put(keyBytes)
+                .array();
+    }
+
+    /**
+     * @return sequence number of the record, 0 if the log is closed and the record is dropped
+     */
+    private long append(byte[] record) {
+        lock.lock();
+        try {
+            if (closed) {
+                return 0;
+            }
+            pending.add(record);
+            if (fsyncPolicy == FsyncPolicy.ALWAYS && pending.size() == 1) {
+                notEmpty.signal();
+            }
+            return ++appendedSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * With {@link FsyncPolicy#ALWAYS} waits until the record is forced to disk, otherwise returns at once.
+     *
+     * @throws UncheckedIOException if the log failed
+     */
+    public void awaitDurable(long seq) {
+        if (fsyncPolicy != FsyncPolicy.ALWAYS || seq == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (durableSeq < seq && failure == null) {
+                durable.awaitUninterruptibly();
+            }
+            if (durableSeq < seq) {
+                throw new UncheckedIOException("Append-only log failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                List<byte[]> batch;
+                long seq;
+                Output dump;
+                boolean dropCopies;
+                boolean stop;
+                lock.lock();
+                try {
+                    if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                        long waitNanos = SYNC_INTERVAL;
+                        while (pending.isEmpty() && !closed && dumped == null && !dumpFailed && waitNanos > 0) {
+                            waitNanos = notEmpty.awaitNanos(waitNanos);
+                        }
+                    } else if (!closed && dumped == null && !dumpFailed) {
+                        notEmpty.awaitNanos(FLUSH_INTERVAL);
+                    }
+                    batch = pending;
+                    pending = new ArrayList<>();
+                    seq = appendedSeq;
+                    dump = dumped;
+                    dumped = null;
+                    dropCopies = dumpFailed;
+                    dumpFailed = false;
+                    stop = closed;
+                } finally {
+                    lock.unlock();
+                }
+
+                for (byte[] record : batch) {
+                    output.write(record);
+                    if (rewriteCopies != null) {
+                        rewriteCopies.add(record);
+                    }
+                }
+                output.flush();
+                unsynced |= !batch.isEmpty();
+
+                long now = System.nanoTime();
+                if (unsynced && (stop || fsyncPolicy == FsyncPolicy.ALWAYS
+                        || fsyncPolicy == FsyncPolicy.EVERY_SECOND && now - lastSync >= SYNC_INTERVAL)) {
+                    output.channel.force(false);
+                    lastSync = now;
+                    unsynced = false;
+                }
+                markDurable(seq);
+
+                if (dropCopies) {
+                    rewriteCopies = null;
+                }
+                if (dump != null) {
+                    finishRewrite(dump);
+                } else if (!stop && rewriteCopies == null && output.size > Math.max(minRewriteSize, 2 * baseSize)) {
+                    startRewrite();
+                }
+
+                if (stop) {
+                    output.channel.close();
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Append-only log failed, changes are not logged any more", e);
+            lock.lock();
+            try {
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                closed = true;
+                durable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void markDurable(long seq) {
+        lock.lock();
+        try {
+            durableSeq = seq;
+            durable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void startRewrite() {
+        rewriteCopies = new ArrayList<>();
+        ThreadUtil.threadFactory("map-aof-rewrite").newThread(this::dump).start();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Rewrite of {} started, size {}", path, output.size);
+        }
+    }
+
+    /**
+     * Rewrite thread: writes the live entries to the temporary file.
+     */
+    private void dump() {
+        Output dump = null;
+        try {
+            dump = new Output(FileChannel.open(tmpPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+            dump.write(header());
+            Output out = dump;
+            dumper.dump((key, value, expireAtMillis) -> out.write(putRecord(key, value, expireAtMillis)));
+            dump.flush();
+        } catch (Exception e) {
+            logger.warn("Rewrite of {} failed", path, e);
+            closeQuietly(dump);
+            dump = null;
+        }
+
+        lock.lock();
+        try {
+            if (closed) {
+                closeQuietly(dump);
+            } else if (dump == null) {
+                dumpFailed = true;
+            } else {
+                dumped = dump;
+            }
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finishRewrite(Output dump) throws IOException {
+        for (byte[] record : rewriteCopies) {
+            dump.write(record);
+        }
+        rewriteCopies = null;
+        dump.force();
+
+        try {
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        long oldSize = output.size;
+        output.channel.close();
+        output = dump;
+        baseSize = dump.size;
+        logger.info("Rewrite of {} is done, {} -> {} bytes", path, oldSize, baseSize);
+    }
+
+    private static void closeQuietly(Output output) {
+        if (output == null) {
+            return;
+        }
+        try {
+            output.channel.close();
+        } catch (IOException e) {
+            logger.debug("Can't close", e);
+        }
+    }
+
+    private static byte[] header() {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).array();
+    }
+
+    /**
+     * Writes the pending records, forces the file and stops the log thread.
+     * Records appended after that are dropped.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            logThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Applies the records of the log file in their order, puts which expired meanwhile are applied as removals.
+     *
+     * @return number of applied records, 0 if there is no file
+     */
+    public static <K, V> long replay(@NotNull Path path,
+                                     @NotNull Serializer<K> keySerializer,
+                                     @NotNull Serializer<V> valueSerializer,
+                                     @NotNull Replayer<K, V> replayer) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size == 0) {
+                return 0;
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+            if (size < HEADER_SIZE || in.readInt() != MAGIC) {
+                throw new IOException("not an append-only log: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported append-only log version " + version + ": " + path);
+            }
+
+            long nowMillis = System.currentTimeMillis();
+            long position = HEADER_SIZE;
+            long count = 0;
+            try {
+                while (position < size) {
+                    byte operation = in.readByte();
+                    long recordSize = 1;
+                    switch (operation) {
+                        case PUT: {
+                            long expireAtMillis = in.readLong();
+                            byte[] keyBytes = readBytes(in, size);
+                            byte[] valueBytes = readBytes(in, size);
+                            recordSize += Long.BYTES + 2 * Integer.BYTES + keyBytes.length + valueBytes.length;
+                            K key = keySerializer.deserialize(keyBytes);
+                            if (expireAtMillis > nowMillis) {
+                                replayer.put(key, valueSerializer.deserialize(valueBytes), expireAtMillis);
+                            } else {
+                                replayer.remove(key);
+                            }
+                            break;
+                        }
+                        case REMOVE:
+                        case EXPIRE: {
+                            byte[] keyBytes = readBytes(in, size);
+                            recordSize += Integer.BYTES + keyBytes.length;
+                            replayer.remove(keySerializer.deserialize(keyBytes));
+                            break;
+                        }
+                        case CLEAR:
+                            replayer.clear();
+                            break;
+                        default:
+                            throw new IOException("append-only log is corrupted at " + position + ": " + path);
+                    }
+                    position += recordSize;
+                    count++;
+                }
+            } catch (EOFException e) {
+                logger.warn("Append-only log {} ends with a cut record, it is truncated to {} bytes", path, position);
+                channel.truncate(position);
+            }
+            return count;
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in, long size) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > size) {
+            throw new IOException("append-only log is corrupted, length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Live entries of the map for a rewrite.
+     *
+     * @param <K> key
+     * @param <V> value
+     */
+    @FunctionalInterface
+    public interface Dumper<K, V> {
+
+        void dump(@NotNull EntryWriter<K, V> writer) throws IOException;
+    }
+
+    /**
+     * @param <K> key
+     * @param <V> value
+     */
+    @FunctionalInterface
+    public interface EntryWriter<K, V> {
+
+        void write(@NotNull K key, @NotNull V value, long expireAtMillis) throws IOException;
+    }
+
+    /**
+     * Receiver of the records of {@link AppendOnlyLog#replay}.
+     *
+     * @param <K> key
+     * @param <V> value
+     */
+    public interface Replayer<K, V> {
+
+        void put(@NotNull K key, @NotNull V value, long expireAtMillis);
+
+        void remove(@NotNull K key);
+
+        void clear();
+    }
+
+    /**
+     * Buffered writes to the end of the file.
+     */
+    private static final class Output {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long size;
+
+        Output(FileChannel channel) throws IOException {
+            this.channel = channel;
+            size = channel.size();
+            channel.position(size);
+        }
+
+        void write(byte[] record) throws IOException {
+            if (record.length > buffer.remaining()) {
+                flush();
+            }
+            if (record.length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(record));
+            } else {
+                buffer.put(record);
+            }
+            size += record.length;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        }
+
+        void force() throws IOException {
+            flush();
+            channel.force(false);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.mchernyakov.variousttlmap.aof;
+
+/**
+ * When {@link AppendOnlyLog} forces its file to disk, the same as Redis {@code appendfsync}.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * After every group of records, a write returns when its record is on disk.
+     */
+    ALWAYS,
+
+    /**
+     * Once per second, a crash loses at most about a second of writes.
+     */
+    EVERY_SECOND,
+
+    /**
+     * Never, the OS writes the file when it wants.
+     */
+    NEVER
+}
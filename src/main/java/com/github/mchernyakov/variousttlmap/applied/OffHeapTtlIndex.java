@@ -0,0 +1,398 @@
+package com.github.mchernyakov.variousttlmap.applied;
+
+import com.github.mchernyakov.variousttlmap.util.BufferUtil;
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Striped open addressing hash table in direct {@link ByteBuffer}s.
+ * <p>
+ * Nothing but the buffers themselves is on the heap, so GC neither copies nor scans the entries.
+ * Every stripe starts with its share of the initial capacity and doubles when the load factor is exceeded.
+ * Memory is freed by {@link OffHeapTtlIndex#release()}, after that the index can't be used.
+ * <p>
+ * Slot layout (16 bytes): hash (int), used flag (int), value (long).
+ * Removal shifts the following slots back, so there are no tombstones.
+ */
+public class OffHeapTtlIndex implements TtlIndex {
+
+    private static final int DEFAULT_BUCKETS = 16;
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    private static final int SLOT_SIZE = 16;
+    private static final int HASH_OFFSET = 0;
+    private static final int USED_OFFSET = 4;
+    private static final int VALUE_OFFSET = 8;
+    private static final int MAX_SLOTS = 1 << 26;
+
+    private final int numBuckets;
+    private final float loadFactor;
+    private final Segment[] segments;
+
+    public OffHeapTtlIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public OffHeapTtlIndex(int initialCapacity) {
+        this(DEFAULT_BUCKETS, initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * @param buckets         number of stripes
+     * @param initialCapacity expected number of entries of the whole index
+     * @param loadFactor      share of used slots when a stripe grows
+     */
+    public OffHeapTtlIndex(int buckets, int initialCapacity, float loadFactor) {
+        Preconditions.checkArgument(buckets > 0);
+        Preconditions.checkArgument(initialCapacity > 0);
+        Preconditions.checkArgument(loadFactor > 0 && loadFactor < 1);
+
+        numBuckets = buckets;
+        this.loadFactor = loadFactor;
+        segments = new Segment[buckets];
+
+        int segmentSlots = HashCommon.arraySize(Math.max(1, initialCapacity / buckets), loadFactor);
+        for (int i = 0; i < buckets; i++) {
+            segments[i] = new Segment(segmentSlots);
+        }
+    }
+
+    private Segment segment(int hash) {
+        return segments[StripeBatch.stripe(hash, numBuckets)];
+    }
+
+    @Override
+    public void put(int hash, long value) {
+        Segment segment = segment(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            segment.put(hash, value);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean extend(int hash, long value, long minStep) {
+        if (!TtlIndex.isExtension(get(hash), value, minStep)) {
+            return false;
+        }
+
+        Segment segment = segment(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            if (!TtlIndex.isExtension(segment.get(hash), value, minStep)) {
+                return false;
+            }
+            segment.put(hash, value);
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void remove(int hash) {
+        Segment segment = segment(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            segment.remove(hash);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long get(int hash) {
+        // no optimistic reads: the buffer may be freed by a concurrent resize
+        Segment segment = segment(hash);
+        long stamp = segment.lock.readLock();
+        try {
+            return segment.get(hash);
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void putAll(int[] hashes, long[] values, int size) {
+        StripeBatch batch = StripeBatch.of(hashes, size, numBuckets);
+        for (int bucketId = 0; bucketId < numBuckets; bucketId++) {
+            if (batch.isEmpty(bucketId)) {
+                continue;
+            }
+            Segment segment = segments[bucketId];
+            long stamp = segment.lock.writeLock();
+            try {
+                for (int i = batch.starts[bucketId]; i < batch.starts[bucketId + 1]; i++) {
+                    int pos = batch.order[i];
+                    segment.put(hashes[pos], values[pos]);
+                }
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    @Override
+    public void removeAll(int[] hashes, int size) {
+        StripeBatch batch = StripeBatch.of(hashes, size, numBuckets);
+        for (int bucketId = 0; bucketId < numBuckets; bucketId++) {
+            if (batch.isEmpty(bucketId)) {
+                continue;
+            }
+            Segment segment = segments[bucketId];
+            long stamp = segment.lock.writeLock();
+            try {
+                for (int i = batch.starts[bucketId]; i < batch.starts[bucketId + 1]; i++) {
+                    segment.remove(hashes[batch.order[i]]);
+                }
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    @Override
+    public void getAll(int[] hashes, long[] values, int size) {
+        StripeBatch batch = StripeBatch.of(hashes, size, numBuckets);
+        for (int bucketId = 0; bucketId < numBuckets; bucketId++) {
+            if (batch.isEmpty(bucketId)) {
+                continue;
+            }
+            Segment segment = segments[bucketId];
+            long stamp = segment.lock.readLock();
+            try {
+                for (int i = batch.starts[bucketId]; i < batch.starts[bucketId + 1]; i++) {
+                    int pos = batch.order[i];
+                    values[pos] = segment.get(hashes[pos]);
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            long stamp = segment.lock.writeLock();
+            try {
+                segment.clear();
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    @Override
+    public void forEach(EntryConsumer consumer) {
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                segment.forEach(consumer);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        for (Segment segment : segments) {
+            long stamp = segment.lock.writeLock();
+            try {
+                segment.release();
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    @Override
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                bytes += (long) segment.capacity * SLOT_SIZE;
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapTtlIndex{" +
+                "numBuckets=" + numBuckets +
+                ", size=" + size() +
+                ", offHeapBytes=" + offHeapBytes() +
+                '}';
+    }
+
+    private final class Segment {
+        final StampedLock lock = new StampedLock();
+
+        ByteBuffer buffer;
+        int capacity;
+        int mask;
+        int size;
+        int maxFill;
+
+        Segment(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int newCapacity) {
+            if (newCapacity > MAX_SLOTS) {
+                throw new IllegalStateException("off-heap ttl index stripe is full: " + size);
+            }
+            buffer = ByteBuffer.allocateDirect(newCapacity * SLOT_SIZE).order(ByteOrder.nativeOrder());
+            capacity = newCapacity;
+            mask = newCapacity - 1;
+            maxFill = HashCommon.maxFill(newCapacity, loadFactor);
+        }
+
+        private ByteBuffer buffer() {
+            if (buffer == null) {
+                throw new IllegalStateException("off-heap ttl index is released");
+            }
+            return buffer;
+        }
+
+        private int find(ByteBuffer buf, int hash) {
+            int pos = HashCommon.mix(hash) & mask;
+            while (buf.getInt(pos * SLOT_SIZE + USED_OFFSET) != 0) {
+                if (buf.getInt(pos * SLOT_SIZE + HASH_OFFSET) == hash) {
+                    return pos;
+                }
+                pos = (pos + 1) & mask;
+            }
+            return -pos - 1;
+        }
+
+        long get(int hash) {
+            ByteBuffer buf = buffer();
+            int pos = find(buf, hash);
+            return pos < 0 ? 0L : buf.getLong(pos * SLOT_SIZE + VALUE_OFFSET);
+        }
+
+        void put(int hash, long value) {
+            ByteBuffer buf = buffer();
+            int pos = find(buf, hash);
+            if (pos >= 0) {
+                buf.putLong(pos * SLOT_SIZE + VALUE_OFFSET, value);
+                return;
+            }
+            write(buf, -pos - 1, hash, value);
+            if (++size > maxFill) {
+                resize(capacity * 2);
+            }
+        }
+
+        void remove(int hash) {
+            ByteBuffer buf = buffer();
+            int pos = find(buf, hash);
+            if (pos < 0) {
+                return;
+            }
+            shiftSlots(buf, pos);
+            size--;
+        }
+
+        /**
+         * Backward shift deletion of linear probing.
+         */
+        private void shiftSlots(ByteBuffer buf, int pos) {
+            int last;
+            int slot;
+            for (; ; ) {
+                pos = ((last = pos) + 1) & mask;
+                for (; ; ) {
+                    if (buf.getInt(pos * SLOT_SIZE + USED_OFFSET) == 0) {
+                        buf.putInt(last * SLOT_SIZE + USED_OFFSET, 0);
+                        return;
+                    }
+                    slot = HashCommon.mix(buf.getInt(pos * SLOT_SIZE + HASH_OFFSET)) & mask;
+                    if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                        break;
+                    }
+                    pos = (pos + 1) & mask;
+                }
+                write(buf, last, buf.getInt(pos * SLOT_SIZE + HASH_OFFSET), buf.getLong(pos * SLOT_SIZE + VALUE_OFFSET));
+            }
+        }
+
+        private void write(ByteBuffer buf, int pos, int hash, long value) {
+            int offset = pos * SLOT_SIZE;
+            buf.putInt(offset + HASH_OFFSET, hash);
+            buf.putInt(offset + USED_OFFSET, 1);
+            buf.putLong(offset + VALUE_OFFSET, value);
+        }
+
+        private void resize(int newCapacity) {
+            ByteBuffer old = buffer;
+            int oldCapacity = capacity;
+            allocate(newCapacity);
+            for (int i = 0; i < oldCapacity; i++) {
+                int offset = i * SLOT_SIZE;
+                if (old.getInt(offset + USED_OFFSET) != 0) {
+                    int hash = old.getInt(offset + HASH_OFFSET);
+                    write(buffer, -find(buffer, hash) - 1, hash, old.getLong(offset + VALUE_OFFSET));
+                }
+            }
+            BufferUtil.free(old);
+        }
+
+        void clear() {
+            ByteBuffer buf = buffer;
+            if (buf == null) {
+                return;
+            }
+            for (int i = 0; i < capacity; i++) {
+                buf.putInt(i * SLOT_SIZE + USED_OFFSET, 0);
+            }
+            size = 0;
+        }
+
+        void forEach(EntryConsumer consumer) {
+            ByteBuffer buf = buffer();
+            for (int i = 0; i < capacity; i++) {
+                int offset = i * SLOT_SIZE;
+                if (buf.getInt(offset + USED_OFFSET) != 0) {
+                    consumer.accept(buf.getInt(offset + HASH_OFFSET), buf.getLong(offset + VALUE_OFFSET));
+                }
+            }
+        }
+
+        void release() {
+            BufferUtil.free(buffer);
+            buffer = null;
+            capacity = 0;
+            size = 0;
+        }
+    }
+}
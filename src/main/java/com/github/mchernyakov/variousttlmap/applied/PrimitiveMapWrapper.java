@@ -1,12 +1,16 @@
 package com.github.mchernyakov.variousttlmap.applied;
 
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
 import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
 
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class PrimitiveMapWrapper {
+/**
+ * Striped {@link Int2LongOpenHashMap} guarded by {@link ReentrantReadWriteLock}.
+ */
+public class PrimitiveMapWrapper implements TtlIndex {
 
     private final int numBuckets;
     private final Int2LongOpenHashMap[] primitiveMaps;
@@ -27,9 +31,10 @@ public class PrimitiveMapWrapper {
     }
 
     private int getBucketId(int hash) {
-        return Math.abs(hash % numBuckets);
+        return StripeBatch.stripe(hash, numBuckets);
     }
 
+    @Override
     public void put(int hash, long value) {
         int bucketId = getBucketId(hash);
         Lock lock = rwLocks[bucketId].writeLock();
@@ -41,6 +46,27 @@ public class PrimitiveMapWrapper {
         }
     }
 
+    @Override
+    public boolean extend(int hash, long value, long minStep) {
+        if (!TtlIndex.isExtension(get(hash), value, minStep)) {
+            return false;
+        }
+
+        int bucketId = getBucketId(hash);
+        Lock lock = rwLocks[bucketId].writeLock();
+        lock.lock();
+        try {
+            if (!TtlIndex.isExtension(primitiveMaps[bucketId].get(hash), value, minStep)) {
+                return false;
+            }
+            primitiveMaps[bucketId].put(hash, value);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
     public void remove(int hash) {
         int bucketId = getBucketId(hash);
         Lock lock = rwLocks[bucketId].writeLock();
@@ -52,6 +78,7 @@ public class PrimitiveMapWrapper {
         }
     }
 
+    @Override
     public long get(int hash) {
         int bucketId = getBucketId(hash);
         Lock lock = rwLocks[bucketId].readLock();
@@ -63,12 +90,90 @@ public class PrimitiveMapWrapper {
         }
     }
 
+    @Override
+    public void putAll(int[] hashes, long[] values, int size) {
+        StripeBatch batch = StripeBatch.of(hashes, size, numBuckets);
+        for (int bucketId = 0; bucketId < numBuckets; bucketId++) {
+            if (batch.isEmpty(bucketId)) {
+                continue;
+            }
+            Int2LongOpenHashMap map = primitiveMaps[bucketId];
+            Lock lock = rwLocks[bucketId].writeLock();
+            lock.lock();
+            try {
+                for (int i = batch.starts[bucketId]; i < batch.starts[bucketId + 1]; i++) {
+                    int pos = batch.order[i];
+                    map.put(hashes[pos], values[pos]);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void removeAll(int[] hashes, int size) {
+        StripeBatch batch = StripeBatch.of(hashes, size, numBuckets);
+        for (int bucketId = 0; bucketId < numBuckets; bucketId++) {
+            if (batch.isEmpty(bucketId)) {
+                continue;
+            }
+            Int2LongOpenHashMap map = primitiveMaps[bucketId];
+            Lock lock = rwLocks[bucketId].writeLock();
+            lock.lock();
+            try {
+                for (int i = batch.starts[bucketId]; i < batch.starts[bucketId + 1]; i++) {
+                    map.remove(hashes[batch.order[i]]);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void getAll(int[] hashes, long[] values, int size) {
+        StripeBatch batch = StripeBatch.of(hashes, size, numBuckets);
+        for (int bucketId = 0; bucketId < numBuckets; bucketId++) {
+            if (batch.isEmpty(bucketId)) {
+                continue;
+            }
+            Int2LongOpenHashMap map = primitiveMaps[bucketId];
+            Lock lock = rwLocks[bucketId].readLock();
+            lock.lock();
+            try {
+                for (int i = batch.starts[bucketId]; i < batch.starts[bucketId + 1]; i++) {
+                    int pos = batch.order[i];
+                    values[pos] = map.get(hashes[pos]);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
     public void clear() {
         for (int i = 0; i < primitiveMaps.length; i++) {
             clearMap(i);
         }
     }
 
+    @Override
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < primitiveMaps.length; i++) {
+            Lock lock = rwLocks[i].readLock();
+            lock.lock();
+            try {
+                for (Int2LongMap.Entry entry : primitiveMaps[i].int2LongEntrySet()) {
+                    consumer.accept(entry.getIntKey(), entry.getLongValue());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
     private void clearMap(int i) {
         Int2LongOpenHashMap map = primitiveMaps[i];
         if (map != null) {
@@ -0,0 +1,201 @@
+package com.github.mchernyakov.variousttlmap.applied;
+
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Striped {@link Int2LongOpenHashMap} guarded by {@link StampedLock}.
+ * <p>
+ * Reads are optimistic: without concurrent writes to the stripe they do not write shared memory at all.
+ * If a write happened during the read, the read is repeated under the read lock.
+ */
+public class StampedLockTtlIndex implements TtlIndex {
+
+    private final int numBuckets;
+    private final Int2LongOpenHashMap[] primitiveMaps;
+    private final StampedLock[] locks;
+
+    public StampedLockTtlIndex() {
+        this(16);
+    }
+
+    public StampedLockTtlIndex(int buckets) {
+        numBuckets = buckets;
+        primitiveMaps = new Int2LongOpenHashMap[buckets];
+        locks = new StampedLock[buckets];
+        for (int i = 0; i < buckets; i++) {
+            primitiveMaps[i] = new Int2LongOpenHashMap();
+            locks[i] = new StampedLock();
+        }
+    }
+
+    private int getBucketId(int hash) {
+        return StripeBatch.stripe(hash, numBuckets);
+    }
+
+    @Override
+    public void put(int hash, long value) {
+        int bucketId = getBucketId(hash);
+        StampedLock lock = locks[bucketId];
+        long stamp = lock.writeLock();
+        try {
+            primitiveMaps[bucketId].put(hash, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean extend(int hash, long value, long minStep) {
+        if (!TtlIndex.isExtension(get(hash), value, minStep)) {
+            return false;
+        }
+
+        int bucketId = getBucketId(hash);
+        StampedLock lock = locks[bucketId];
+        long stamp = lock.writeLock();
+        try {
+            Int2LongOpenHashMap map = primitiveMaps[bucketId];
+            if (!TtlIndex.isExtension(map.get(hash), value, minStep)) {
+                return false;
+            }
+            map.put(hash, value);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void remove(int hash) {
+        int bucketId = getBucketId(hash);
+        StampedLock lock = locks[bucketId];
+        long stamp = lock.writeLock();
+        try {
+            primitiveMaps[bucketId].remove(hash);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long get(int hash) {
+        int bucketId = getBucketId(hash);
+        StampedLock lock = locks[bucketId];
+        Int2LongOpenHashMap map = primitiveMaps[bucketId];
+
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                long value = map.get(hash);
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                // the map was rehashed during the read, the result is discarded
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return map.get(hash);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void putAll(int[] hashes, long[] values, int size) {
+        StripeBatch batch = StripeBatch.of(hashes, size, numBuckets);
+        for (int bucketId = 0; bucketId < numBuckets; bucketId++) {
+            if (batch.isEmpty(bucketId)) {
+                continue;
+            }
+            Int2LongOpenHashMap map = primitiveMaps[bucketId];
+            StampedLock lock = locks[bucketId];
+            long stamp = lock.writeLock();
+            try {
+                for (int i = batch.starts[bucketId]; i < batch.starts[bucketId + 1]; i++) {
+                    int pos = batch.order[i];
+                    map.put(hashes[pos], values[pos]);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    @Override
+    public void removeAll(int[] hashes, int size) {
+        StripeBatch batch = StripeBatch.of(hashes, size, numBuckets);
+        for (int bucketId = 0; bucketId < numBuckets; bucketId++) {
+            if (batch.isEmpty(bucketId)) {
+                continue;
+            }
+            Int2LongOpenHashMap map = primitiveMaps[bucketId];
+            StampedLock lock = locks[bucketId];
+            long stamp = lock.writeLock();
+            try {
+                for (int i = batch.starts[bucketId]; i < batch.starts[bucketId + 1]; i++) {
+                    map.remove(hashes[batch.order[i]]);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Batches are read under the read lock, a long optimistic read would be invalidated by any write.
+     */
+    @Override
+    public void getAll(int[] hashes, long[] values, int size) {
+        StripeBatch batch = StripeBatch.of(hashes, size, numBuckets);
+        for (int bucketId = 0; bucketId < numBuckets; bucketId++) {
+            if (batch.isEmpty(bucketId)) {
+                continue;
+            }
+            Int2LongOpenHashMap map = primitiveMaps[bucketId];
+            StampedLock lock = locks[bucketId];
+            long stamp = lock.readLock();
+            try {
+                for (int i = batch.starts[bucketId]; i < batch.starts[bucketId + 1]; i++) {
+                    int pos = batch.order[i];
+                    values[pos] = map.get(hashes[pos]);
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < numBuckets; i++) {
+            StampedLock lock = locks[i];
+            long stamp = lock.writeLock();
+            try {
+                primitiveMaps[i].clear();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    @Override
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < numBuckets; i++) {
+            StampedLock lock = locks[i];
+            long stamp = lock.readLock();
+            try {
+                for (Int2LongMap.Entry entry : primitiveMaps[i].int2LongEntrySet()) {
+                    consumer.accept(entry.getIntKey(), entry.getLongValue());
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+}
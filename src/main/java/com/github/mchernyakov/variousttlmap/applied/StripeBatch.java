@@ -0,0 +1,51 @@
+package com.github.mchernyakov.variousttlmap.applied;
+
+/**
+ * Positions of a batch of hashes grouped by stripe (counting sort),
+ * so the lock of every stripe is taken once per batch.
+ */
+final class StripeBatch {
+
+    /**
+     * Positions in the batch arrays, stripe by stripe.
+     */
+    final int[] order;
+
+    /**
+     * Positions of stripe {@code i} are {@code order[starts[i]]} to {@code order[starts[i + 1] - 1]}.
+     */
+    final int[] starts;
+
+    private StripeBatch(int[] order, int[] starts) {
+        this.order = order;
+        this.starts = starts;
+    }
+
+    static int stripe(int hash, int numStripes) {
+        return Math.abs(hash % numStripes);
+    }
+
+    static StripeBatch of(int[] hashes, int size, int numStripes) {
+        int[] starts = new int[numStripes + 1];
+        int[] stripes = new int[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = stripe(hashes[i], numStripes);
+            starts[stripes[i] + 1]++;
+        }
+        for (int i = 0; i < numStripes; i++) {
+            starts[i + 1] += starts[i];
+        }
+
+        int[] order = new int[size];
+        int[] next = new int[numStripes];
+        System.arraycopy(starts, 0, next, 0, numStripes);
+        for (int i = 0; i < size; i++) {
+            order[next[stripes[i]]++] = i;
+        }
+        return new StripeBatch(order, starts);
+    }
+
+    boolean isEmpty(int stripe) {
+        return starts[stripe] == starts[stripe + 1];
+    }
+}
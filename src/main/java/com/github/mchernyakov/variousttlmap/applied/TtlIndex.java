@@ -0,0 +1,93 @@
+package com.github.mchernyakov.variousttlmap.applied;
+
+/**
+ * Map for ttl: key hash + time when the key will be expired.
+ * <p>
+ * Implementations have to be thread safe.
+ */
+public interface TtlIndex {
+
+    void put(int hash, long value);
+
+    void remove(int hash);
+
+    /**
+     * @return value or 0 if there is no such hash
+     */
+    long get(int hash);
+
+    void clear();
+
+    /**
+     * Moves the value of the hash to {@code value} if the hash is present and the value is later
+     * by more than {@code minStep}. Implementations check it under the read lock first,
+     * so a call which moves nothing doesn't take the write lock.
+     *
+     * @return true if the value was moved
+     */
+    default boolean extend(int hash, long value, long minStep) {
+        if (!isExtension(get(hash), value, minStep)) {
+            return false;
+        }
+        put(hash, value);
+        return true;
+    }
+
+    /**
+     * @return true if the current value is present and {@code value} is later than it by more than {@code minStep}
+     */
+    static boolean isExtension(long current, long value, long minStep) {
+        return current != 0 && value - current > minStep;
+    }
+
+    /**
+     * Puts the first {@code size} hashes with their values, implementations take every lock once per batch.
+     */
+    default void putAll(int[] hashes, long[] values, int size) {
+        for (int i = 0; i < size; i++) {
+            put(hashes[i], values[i]);
+        }
+    }
+
+    /**
+     * Removes the first {@code size} hashes, implementations take every lock once per batch.
+     */
+    default void removeAll(int[] hashes, int size) {
+        for (int i = 0; i < size; i++) {
+            remove(hashes[i]);
+        }
+    }
+
+    /**
+     * Writes the values of the first {@code size} hashes (0 if there is no such hash) to {@code values}.
+     */
+    default void getAll(int[] hashes, long[] values, int size) {
+        for (int i = 0; i < size; i++) {
+            values[i] = get(hashes[i]);
+        }
+    }
+
+    /**
+     * Iterates over a weakly consistent view of the index.
+     */
+    void forEach(EntryConsumer consumer);
+
+    /**
+     * Releases resources of the index, it can't be used after that.
+     */
+    default void release() {
+        // no-op
+    }
+
+    /**
+     * @return bytes of memory allocated outside of the heap
+     */
+    default long offHeapBytes() {
+        return 0;
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(int hash, long value);
+    }
+}
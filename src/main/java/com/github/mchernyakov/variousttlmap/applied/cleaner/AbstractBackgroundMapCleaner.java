@@ -1,30 +1,51 @@
 package com.github.mchernyakov.variousttlmap.applied.cleaner;
 
-import com.github.mchernyakov.variousttlmap.VariousTtlMapImpl;
+import com.github.mchernyakov.variousttlmap.stats.StatsCounter;
 import com.github.mchernyakov.variousttlmap.util.Preconditions;
 import com.github.mchernyakov.variousttlmap.util.ThreadUtil;
 import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Map cleaner.
  * <p>
  * Algorithm of active cleaning:
- * Start cleaning workers via {@link AbstractBackgroundMapCleaner#startCleaners()} and {@link AbstractBackgroundMapCleaner#task()} .
+ * Start cleaning workers via {@link AbstractBackgroundMapCleaner#startCleaners()} and {@link AbstractBackgroundMapCleaner#runSession()} .
  * Work duration is {@link AbstractBackgroundMapCleaner#delayTime}.
  * <p>
- * Inside {@link AbstractBackgroundMapCleaner#task()} we get a array of keys, then check size {@link AbstractBackgroundMapCleaner#numKeyCheck} of keys.
+ * Inside {@link AbstractBackgroundMapCleaner#runSession()} we get a array of keys, then check size {@link AbstractBackgroundMapCleaner#numKeyCheck} of keys.
  * <p>
  * Using {@link AbstractBackgroundMapCleaner#checkRandomKey(List)} we check keys.
  * And if percent of deleted keys greater then {@link AbstractBackgroundMapCleaner#percentWaterMark} then we calculate one more time .
+ * <p>
+ * With {@link SamplingMode#RANDOM_PROBE} there is no array of keys,
+ * random keys are taken from the map itself via {@link CleanableMap#randomKey(int, int)}
+ * and the water mark loop runs per stripe of the map, see {@link AbstractBackgroundMapCleaner#cleanStripe(int, int)}.
+ * <p>
+ * Adaptive scheduling (if {@link AbstractBackgroundMapCleaner#maxDelayTime} is set): every worker schedules its next session itself,
+ * the delay is halved (down to {@link AbstractBackgroundMapCleaner#minDelayTime}) after a session which found more expired keys
+ * than the water mark and doubled (up to {@link AbstractBackgroundMapCleaner#maxDelayTime}) after a clean one.
+ * <p>
+ * Time budget (if {@link AbstractBackgroundMapCleaner#sessionBudgetNanos} is set): the clock is read every
+ * {@link AbstractBackgroundMapCleaner#BUDGET_CHECK_INTERVAL} checked keys and the session stops when the budget is spent.
+ * The next session continues with the stripes which were not cleaned, overruns are counted
+ * in {@link AbstractBackgroundMapCleaner#budgetOverruns()}.
+ * <p>
+ * Every session ends with {@link CleanableMap#reclaim()}.
+ * <p>
+ * With a {@link CleanerScheduler} the cleaner has no threads: every worker is a job of the scheduler,
+ * which runs it with the same delays, see {@link AbstractBackgroundMapCleaner#startCleaners()}.
  *
  * @param <K>
  * @param <V>
@@ -34,76 +55,238 @@ abstract class AbstractBackgroundMapCleaner<K, V> implements BackgroundMapCleane
 
     private static final int HUNDRED_PERCENT = 100;
     private static final int RED_LINE_PERCENT = 90;
+    private static final int BUDGET_CHECK_INTERVAL = 16;
 
     private final long delayTime;
+    private final long minDelayTime;
+    private final long maxDelayTime;
+    private final long sessionBudgetNanos;
+    private final LongAdder budgetOverruns = new LongAdder();
     private final int numKeyCheck;
     private final int percentWaterMark;
+    private final SamplingMode samplingMode;
     protected final int poolSize;
 
-    protected final VariousTtlMapImpl<K, V> map;
+    protected final CleanableMap<K> map;
     protected final ScheduledExecutorService executorService;
+    private final CleanerScheduler scheduler;
+    private final List<CleanerScheduler.Registration> registrations = new ArrayList<>();
 
-    public AbstractBackgroundMapCleaner(VariousTtlMapImpl<K, V> variousTtlMap, BackgroundMapCleaner.Builder<K, V> builder) {
+    public AbstractBackgroundMapCleaner(CleanableMap<K> variousTtlMap, BackgroundMapCleaner.Builder<K, V> builder) {
         Preconditions.checkArgument(builder.poolSize > 0);
         Preconditions.checkArgument(builder.numKeyCheck > 0);
         Preconditions.checkArgument(builder.delayTime > 0);
 
         Preconditions.checkArgument(builder.percentWaterMark > 0);
         Preconditions.checkArgument(builder.percentWaterMark < 100);
+        Preconditions.checkNotNull(builder.samplingMode);
+        Preconditions.checkArgument(builder.sessionBudget >= 0);
+        if (builder.maxDelayTime > 0) {
+            Preconditions.checkArgument(builder.minDelayTime > 0);
+            Preconditions.checkArgument(builder.minDelayTime <= builder.maxDelayTime);
+        }
 
         delayTime = builder.delayTime;
+        minDelayTime = builder.minDelayTime;
+        maxDelayTime = builder.maxDelayTime;
+        sessionBudgetNanos = TimeUnit.MILLISECONDS.toNanos(builder.sessionBudget);
         numKeyCheck = builder.numKeyCheck;
         poolSize = builder.poolSize;
         percentWaterMark = builder.percentWaterMark;
+        samplingMode = builder.samplingMode;
 
         map = variousTtlMap;
+        scheduler = builder.scheduler;
 
-        ThreadFactory factory = ThreadUtil.threadFactory("map-cleaner");
-        executorService = Executors.newScheduledThreadPool(poolSize, factory);
+        if (scheduler == null) {
+            ThreadFactory factory = ThreadUtil.threadFactory("map-cleaner");
+            executorService = Executors.newScheduledThreadPool(poolSize, factory);
+        } else {
+            executorService = null;
+        }
     }
 
     @Override
     public void startCleaners() {
+        if (scheduler != null) {
+            synchronized (registrations) {
+                for (int i = 0; i < poolSize; i++) {
+                    ScheduledWorker worker = new ScheduledWorker(i);
+                    registrations.add(scheduler.register(worker, TimeUnit.MILLISECONDS.toNanos(worker.delay)));
+                }
+            }
+            return;
+        }
+
+        if (isAdaptive()) {
+            long initialDelay = Math.max(minDelayTime, Math.min(maxDelayTime, delayTime));
+            for (int i = 0; i < poolSize; i++) {
+                scheduleSession(i, 0, initialDelay);
+            }
+            return;
+        }
+
         for (int i = 0; i < poolSize; i++) {
-            executorService.scheduleAtFixedRate(task(), 0, delayTime, TimeUnit.MILLISECONDS);
+            executorService.scheduleAtFixedRate(task(i), 0, delayTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private boolean isAdaptive() {
+        return maxDelayTime > 0;
+    }
+
+    /**
+     * Schedules one session of the worker, the session schedules the next one with the adjusted delay.
+     */
+    private void scheduleSession(int worker, long delay, long lastDelay) {
+        try {
+            executorService.schedule(() -> {
+                boolean dirty;
+                try {
+                    dirty = runSession(worker);
+                } catch (Exception e) {
+                    logger.warn("Error while cleaning map", e);
+                    throw new RuntimeException(e);
+                }
+
+                long nextDelay = nextDelay(lastDelay, dirty);
+                scheduleSession(worker, nextDelay, nextDelay);
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutdown
+            if (logger.isDebugEnabled()) {
+                logger.debug("Cleaner is shut down, worker {} stopped", worker);
+            }
         }
     }
 
-    private Runnable task() {
+    @VisibleForTesting
+    long nextDelay(long delay, boolean dirty) {
+        return dirty
+                ? Math.max(minDelayTime, delay / 2)
+                : Math.min(maxDelayTime, delay * 2);
+    }
+
+    private Runnable task(int worker) {
         return () -> {
             try {
-                additionalInit();
+                runSession(worker);
+            } catch (Exception e) {
+                logger.warn("Error while cleaning map", e);
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    /**
+     * Runs one cleaning session in the calling thread.
+     */
+    @VisibleForTesting
+    boolean runSession() {
+        return runSession(0);
+    }
+
+    /**
+     * @param worker number of the cleaning task, from 0 to {@link AbstractBackgroundMapCleaner#poolSize}
+     * @return true if the percent of expired keys was greater than the water mark
+     */
+    boolean runSession(int worker) {
+        Session session = session(worker);
+        // an interrupted session left work for the next one
+        return session.dirty || session.overrun;
+    }
 
+    private Session session(int worker) {
+        long start = System.nanoTime();
+        Session session = new Session(start, sessionBudgetNanos);
+        try {
+            if (samplingMode == SamplingMode.RANDOM_PROBE) {
+                runProbeSession(worker, session);
+            } else {
+                runSnapshotSession(session);
+            }
+            map.reclaim();
+        } finally {
+            StatsCounter statsCounter = map.getStatsCounter();
+            statsCounter.recordCleanerRemovals(session.numRemoved);
+            statsCounter.recordCleanerSession(System.nanoTime() - start, session.numChecked, session.numRemoved);
+
+            if (session.overrun) {
+                budgetOverruns.increment();
                 if (logger.isDebugEnabled()) {
-                    logger.debug("Start cleaning");
+                    logger.debug("Cleaning session is out of time budget, checked {}", session.numChecked);
                 }
+            }
+        }
+        return session;
+    }
+
+    private void runSnapshotSession(Session session) {
+        try {
+            additionalInit();
 
-                // get a array of keys
-                List<K> keysAsArray;
-                while ((keysAsArray = getKeys()) != null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Start cleaning");
+            }
 
-                    int size = keysAsArray.size();
-                    if (size == 0) {
-                        return;
-                    }
+            // get a array of keys
+            List<K> keysAsArray;
+            while (!session.overrun && (keysAsArray = getKeys()) != null) {
 
-                    // check and delete
-                    int numRemovedKeys;
-                    do {
-                        numRemovedKeys = tryRemoveKeys(keysAsArray);
-                    } while (checkExcessWaterMark(size, numRemovedKeys));
+                int size = keysAsArray.size();
+                if (size == 0) {
+                    return;
+                }
 
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Finish clean. num done {}, start size {}", numRemovedKeys, size);
-                    }
+                // check and delete
+                int numRemovedKeys = tryRemoveKeys(keysAsArray, session);
+                session.dirty |= isAboveWaterMark(Math.min(numKeyCheck, size), numRemovedKeys);
+                while (!session.overrun && checkExcessWaterMark(size, numRemovedKeys)) {
+                    numRemovedKeys = tryRemoveKeys(keysAsArray, session);
+                }
+
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Finish clean. num done {}, start size {}", numRemovedKeys, size);
                 }
-            } catch (Exception e) {
-                logger.warn("Error while cleaning map", e);
-                throw new RuntimeException(e);
-            } finally {
-                additionalFinally();
             }
-        };
+        } finally {
+            additionalFinally();
+        }
+    }
+
+    void runProbeSession(int worker, Session session) {
+        cleanStripe(0, 1, session);
+    }
+
+    /**
+     * Checks random keys of the stripe while the percent of expired keys is greater than the water mark
+     * and the session has time.
+     *
+     * @return false if the session was out of time before the stripe was clean
+     */
+    boolean cleanStripe(int stripe, int numStripes, Session session) {
+        int numCheckedKeys;
+        int numRemovedKeys;
+        int numRemovedTotal = 0;
+        boolean first = true;
+        do {
+            int size = map.size();
+            if (size == 0) {
+                break;
+            }
+            numCheckedKeys = Math.min(numKeyCheck, Math.max(1, size / numStripes));
+            numRemovedKeys = tryRemoveRandomKeys(numCheckedKeys, stripe, numStripes, session);
+            numRemovedTotal += numRemovedKeys;
+            if (first) {
+                session.dirty |= isAboveWaterMark(numCheckedKeys, numRemovedKeys);
+                first = false;
+            }
+        } while (!session.overrun && checkExcessWaterMark(numCheckedKeys, numRemovedKeys));
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Finish clean of stripe {}. num done {}", stripe, numRemovedTotal);
+        }
+        return !session.overrun;
     }
 
     abstract void additionalInit();
@@ -118,16 +301,33 @@ abstract class AbstractBackgroundMapCleaner<K, V> implements BackgroundMapCleane
         return percent > percentWaterMark && percent < RED_LINE_PERCENT;
     }
 
-    private int tryRemoveKeys(List<K> keys) {
+    private boolean isAboveWaterMark(int size, int numDone) {
+        return HUNDRED_PERCENT * numDone > percentWaterMark * size;
+    }
+
+    private int tryRemoveKeys(List<K> keys, Session session) {
         int numAttempt = 0;
         int numRemovedKeys = 0;
         int size = keys.size();
-        while (processCondition(numAttempt, size)) {
+        while (processCondition(numAttempt, size) && session.hasTime()) {
             if (checkRandomKey(keys)) {
                 numRemovedKeys++;
             }
             numAttempt++;
         }
+        session.numRemoved += numRemovedKeys;
+        return numRemovedKeys;
+    }
+
+    private int tryRemoveRandomKeys(int numAttempts, int stripe, int numStripes, Session session) {
+        int numRemovedKeys = 0;
+        for (int i = 0; i < numAttempts && session.hasTime(); i++) {
+            K key = map.randomKey(stripe, numStripes);
+            if (key != null && checkKey(key)) {
+                numRemovedKeys++;
+            }
+        }
+        session.numRemoved += numRemovedKeys;
         return numRemovedKeys;
     }
 
@@ -137,13 +337,14 @@ abstract class AbstractBackgroundMapCleaner<K, V> implements BackgroundMapCleane
 
     private boolean checkRandomKey(List<K> keys) {
         int num = getRandomIndex(keys.size());
-        K key = keys.get(num);
-        if (map.checkExpired(key)) {
+        return checkKey(keys.get(num));
+    }
+
+    private boolean checkKey(K key) {
+        if (map.removeIfExpired(key)) {
             if (logger.isDebugEnabled()) {
                 logger.debug("Remove key: {}", key);
             }
-
-            map.remove(key);
             return true;
         }
         return false;
@@ -157,8 +358,81 @@ abstract class AbstractBackgroundMapCleaner<K, V> implements BackgroundMapCleane
         return ThreadLocalRandom.current().nextInt(size - 1);
     }
 
+    @Override
+    public long budgetOverruns() {
+        return budgetOverruns.sum();
+    }
+
     @Override
     public void shutdown() {
-        ThreadUtil.shutdownExecutorService(executorService);
+        if (scheduler == null) {
+            ThreadUtil.shutdownExecutorService(executorService);
+            return;
+        }
+        synchronized (registrations) {
+            registrations.forEach(CleanerScheduler.Registration::cancel);
+            registrations.clear();
+        }
+    }
+
+    /**
+     * Worker of the cleaner as a job of the {@link CleanerScheduler}.
+     */
+    private final class ScheduledWorker implements CleanerScheduler.Job {
+        private final int worker;
+        private long delay;
+        private double expiredRatio;
+
+        ScheduledWorker(int worker) {
+            this.worker = worker;
+            this.delay = isAdaptive() ? Math.max(minDelayTime, Math.min(maxDelayTime, delayTime)) : delayTime;
+        }
+
+        @Override
+        public long run() {
+            Session session = session(worker);
+            expiredRatio = session.numChecked == 0 ? 0 : session.numRemoved / (double) session.numChecked;
+            if (isAdaptive()) {
+                delay = nextDelay(delay, session.dirty || session.overrun);
+            }
+            return TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+
+        @Override
+        public double expiredRatio() {
+            return expiredRatio;
+        }
+    }
+
+    /**
+     * State of one cleaning session of one worker.
+     */
+    static final class Session {
+        private final long deadline;
+        private final boolean hasBudget;
+
+        int numChecked;
+        int numRemoved;
+        boolean dirty;
+        boolean overrun;
+
+        Session(long start, long budgetNanos) {
+            hasBudget = budgetNanos > 0;
+            deadline = start + budgetNanos;
+        }
+
+        /**
+         * Called before every check of a key, reads the clock every {@link AbstractBackgroundMapCleaner#BUDGET_CHECK_INTERVAL} keys.
+         */
+        boolean hasTime() {
+            if (overrun) {
+                return false;
+            }
+            if (++numChecked % BUDGET_CHECK_INTERVAL == 0 && hasBudget && System.nanoTime() - deadline > 0) {
+                overrun = true;
+                return false;
+            }
+            return true;
+        }
     }
 }
@@ -1,6 +1,5 @@
 package com.github.mchernyakov.variousttlmap.applied.cleaner;
 
-import com.github.mchernyakov.variousttlmap.VariousTtlMapImpl;
 import com.github.mchernyakov.variousttlmap.util.Preconditions;
 import org.jetbrains.annotations.NotNull;
 
@@ -10,13 +9,47 @@ public interface BackgroundMapCleaner<K, V> {
 
     void shutdown();
 
+    /**
+     * @return number of sessions which were stopped by the time budget
+     */
+    default long budgetOverruns() {
+        return 0;
+    }
+
+    /**
+     * Called after the key was written with the expiration time.
+     */
+    default void onWrite(K key, long expiration) {
+        // no-op
+    }
+
+    /**
+     * Called after the key was removed (not by the cleaner).
+     */
+    default void onRemove(K key) {
+        // no-op
+    }
+
+    /**
+     * Called before the map is cleared.
+     */
+    default void onClear() {
+        // no-op
+    }
+
     final class Builder<K, V> {
         private static final int DEFAULT_POOL_SIZE = 1;
 
         long delayTime;
+        long minDelayTime;
+        long maxDelayTime;
+        long sessionBudget;
         int poolSize = DEFAULT_POOL_SIZE;
         int numKeyCheck;
         int percentWaterMark;
+        CleanerType type = CleanerType.RANDOM_SAMPLING;
+        SamplingMode samplingMode = SamplingMode.SNAPSHOT;
+        CleanerScheduler scheduler;
 
         private Builder() {
         }
@@ -30,6 +63,23 @@ public interface BackgroundMapCleaner<K, V> {
             return this;
         }
 
+        /**
+         * Bounds of the adaptive delay between sessions, the fixed {@link #setDelayTime(long)} is used if max is 0.
+         */
+        public Builder<K, V> setAdaptiveDelayTime(long minDelayTime, long maxDelayTime) {
+            this.minDelayTime = minDelayTime;
+            this.maxDelayTime = maxDelayTime;
+            return this;
+        }
+
+        /**
+         * Time budget of a session (millis), 0 - no budget.
+         */
+        public Builder<K, V> setSessionBudget(long sessionBudget) {
+            this.sessionBudget = sessionBudget;
+            return this;
+        }
+
         public Builder<K, V> setPoolSize(int poolSize) {
             this.poolSize = poolSize;
             return this;
@@ -45,13 +95,34 @@ public interface BackgroundMapCleaner<K, V> {
             return this;
         }
 
+        public Builder<K, V> setType(CleanerType type) {
+            this.type = type;
+            return this;
+        }
+
+        public Builder<K, V> setSamplingMode(SamplingMode samplingMode) {
+            this.samplingMode = samplingMode;
+            return this;
+        }
+
+        /**
+         * Shared scheduler which runs the sessions instead of the own threads of the cleaner, null - own threads.
+         */
+        public Builder<K, V> setScheduler(CleanerScheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
         @SuppressWarnings("unchecked")
         public <K1 extends K, V1 extends V>
-        BackgroundMapCleaner<K1, V1> build(@NotNull VariousTtlMapImpl<K1, V1> map) {
+        BackgroundMapCleaner<K1, V1> build(@NotNull CleanableMap<K1> map) {
             Preconditions.checkNotNull(map);
+            Preconditions.checkNotNull(type);
             Builder<K1, V1> self = (Builder<K1, V1>) this;
 
-            if (poolSize > DEFAULT_POOL_SIZE) {
+            if (type == CleanerType.TIMING_WHEEL) {
+                return new TimingWheelMapCleaner<>(map, self);
+            } else if (poolSize > DEFAULT_POOL_SIZE) {
                 return new MultiThreadMapCleaner<>(map, self);
             } else {
                 return new SingleThreadMapCleaner<>(map, self);
@@ -0,0 +1,63 @@
+package com.github.mchernyakov.variousttlmap.applied.cleaner;
+
+import com.github.mchernyakov.variousttlmap.Ticker;
+import com.github.mchernyakov.variousttlmap.stats.StatsCounter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Set;
+
+/**
+ * What {@link BackgroundMapCleaner}s need from a map.
+ *
+ * @param <K> key
+ */
+public interface CleanableMap<K> {
+
+    int size();
+
+    /**
+     * Stripes are disjoint parts of the map.
+     *
+     * @param stripe     number of the stripe, from 0 to numStripes
+     * @param numStripes power of two
+     * @return random key (expired or not) of the stripe or null if there is no key
+     */
+    @Nullable
+    K randomKey(int stripe, int numStripes);
+
+    /**
+     * Removes the key if it is expired.
+     *
+     * @return true if the key was removed
+     */
+    boolean removeIfExpired(@NotNull K key);
+
+    /**
+     * @return true if the key is in the map (expired or not)
+     */
+    default boolean containsKey(@NotNull K key) {
+        return keySet().contains(key);
+    }
+
+    /**
+     * @return keys of the map, a live view or a snapshot
+     */
+    Set<K> keySet();
+
+    StatsCounter getStatsCounter();
+
+    /**
+     * @return time source of the expiration time of the keys
+     */
+    default Ticker getTicker() {
+        return Ticker.systemTicker();
+    }
+
+    /**
+     * Called by the cleaners after every session, makes memory of removed entries reusable.
+     */
+    default void reclaim() {
+        // no-op
+    }
+}
@@ -0,0 +1,279 @@
+package com.github.mchernyakov.variousttlmap.applied.cleaner;
+
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import com.github.mchernyakov.variousttlmap.util.ThreadUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed pool of cleaner threads shared by many maps.
+ * <p>
+ * Every map registers its cleaning jobs instead of starting its own threads, so the number of threads
+ * doesn't grow with the number of maps. A job waits in {@link CleanerScheduler#waiting} until its next run,
+ * then in {@link CleanerScheduler#ready} until a worker is free. The order of the ready jobs is the {@link Policy}.
+ * A job is never run by two workers at once, its next run is scheduled after the current one.
+ * A job which throws runs again after its last delay, but not sooner than in a second,
+ * so a failing map doesn't hold a worker.
+ * <p>
+ * The scheduler is owned by the caller: maps deregister their jobs on shutdown,
+ * {@link CleanerScheduler#shutdown()} stops the workers.
+ */
+public class CleanerScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(CleanerScheduler.class);
+
+    private static final long MIN_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Order of the jobs which are due.
+     */
+    public enum Policy {
+
+        /**
+         * The job which has been due the longest runs first, every map gets its turn.
+         */
+        ROUND_ROBIN,
+
+        /**
+         * The job whose last run found the greatest share of expired keys runs first.
+         */
+        EXPIRED_RATIO
+    }
+
+    private final int poolSize;
+    private final Policy policy;
+    private final ExecutorService executorService;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Registration> waiting = new PriorityQueue<>(Comparator.comparingLong(r -> r.due));
+    private final PriorityQueue<Registration> ready;
+    private int numRegistered;
+    private boolean shutdown;
+
+    public CleanerScheduler(int poolSize) {
+        this(poolSize, Policy.ROUND_ROBIN);
+    }
+
+    public CleanerScheduler(int poolSize, Policy policy) {
+        Preconditions.checkArgument(poolSize > 0);
+        Preconditions.checkNotNull(policy);
+
+        this.poolSize = poolSize;
+        this.policy = policy;
+        ready = policy == Policy.EXPIRED_RATIO
+                ? new PriorityQueue<>(Comparator.<Registration>comparingDouble(r -> -r.expiredRatio).thenComparingLong(r -> r.due))
+                : new PriorityQueue<>(Comparator.comparingLong(r -> r.due));
+
+        executorService = Executors.newFixedThreadPool(poolSize, ThreadUtil.threadFactory("map-cleaner-shared"));
+        for (int i = 0; i < poolSize; i++) {
+            executorService.execute(this::work);
+        }
+    }
+
+    /**
+     * A cleaning job of a map.
+     */
+    interface Job {
+
+        /**
+         * Runs one session.
+         *
+         * @return delay before the next session, nanos
+         */
+        long run();
+
+        /**
+         * @return share of expired keys among the keys checked by the last session, from 0 to 1
+         */
+        double expiredRatio();
+    }
+
+    /**
+     * Schedules the first run of the job.
+     *
+     * @throws IllegalStateException if the scheduler is shut down
+     */
+    Registration register(Job job, long initialDelayNanos) {
+        Preconditions.checkNotNull(job);
+        Registration registration = new Registration(job);
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new IllegalStateException("cleaner scheduler is shut down");
+            }
+            registration.due = System.nanoTime() + initialDelayNanos;
+            registration.delay = initialDelayNanos;
+            waiting.add(registration);
+            numRegistered++;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        return registration;
+    }
+
+    private void work() {
+        Registration registration;
+        while ((registration = take()) != null) {
+            long delay;
+            try {
+                delay = registration.job.run();
+            } catch (Exception e) {
+                logger.warn("Error while cleaning map", e);
+                delay = Math.max(registration.delay, MIN_RETRY_NANOS);
+            }
+            release(registration, delay);
+        }
+    }
+
+    /**
+     * @return the next job to run or null if the scheduler is shut down
+     */
+    private Registration take() {
+        lock.lock();
+        try {
+            for (; ; ) {
+                if (shutdown) {
+                    return null;
+                }
+                long now = System.nanoTime();
+                while (!waiting.isEmpty() && waiting.peek().due - now <= 0) {
+                    ready.add(waiting.poll());
+                }
+
+                Registration registration = ready.poll();
+                if (registration != null) {
+                    registration.running = true;
+                    registration.worker = Thread.currentThread();
+                    if (!ready.isEmpty()) {
+                        changed.signal();
+                    }
+                    return registration;
+                }
+
+                Registration next = waiting.peek();
+                if (next == null) {
+                    changed.await();
+                } else {
+                    changed.awaitNanos(next.due - now);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Registration registration, long delay) {
+        lock.lock();
+        try {
+            registration.running = false;
+            registration.worker = null;
+            if (registration.cancelled) {
+                registration.stopped.signalAll();
+                return;
+            }
+            registration.expiredRatio = registration.job.expiredRatio();
+            registration.delay = delay;
+            registration.due = System.nanoTime() + delay;
+            waiting.add(registration);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of registered jobs
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return numRegistered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the workers, the jobs which are running are finished first.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            waiting.clear();
+            ready.clear();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        ThreadUtil.shutdownExecutorService(executorService);
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public String toString() {
+        return "CleanerScheduler{" +
+                "poolSize=" + poolSize +
+                ", policy=" + policy +
+                '}';
+    }
+
+    /**
+     * Registered job, see {@link Registration#cancel()}.
+     */
+    final class Registration {
+        final Job job;
+        final Condition stopped = lock.newCondition();
+
+        long due;
+        long delay;
+        double expiredRatio;
+        boolean running;
+        boolean cancelled;
+        Thread worker;
+
+        Registration(Job job) {
+            this.job = job;
+        }
+
+        /**
+         * Removes the job from the scheduler and waits for its current run, if any.
+         * The job is not run after this returns (unless it is called by the job itself).
+         */
+        void cancel() {
+            lock.lock();
+            try {
+                if (!cancelled) {
+                    cancelled = true;
+                    numRegistered--;
+                }
+                waiting.remove(this);
+                ready.remove(this);
+                while (running && worker != Thread.currentThread()) {
+                    stopped.awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.mchernyakov.variousttlmap.applied.cleaner;
+
+/**
+ * Algorithm of active cleaning.
+ */
+public enum CleanerType {
+
+    /**
+     * Redis-like random sampling of keys, see {@link AbstractBackgroundMapCleaner}.
+     */
+    RANDOM_SAMPLING,
+
+    /**
+     * Hierarchical timing wheel indexed by expiration tick, see {@link TimingWheelMapCleaner}.
+     */
+    TIMING_WHEEL
+}
@@ -1,28 +1,104 @@
 package com.github.mchernyakov.variousttlmap.applied.cleaner;
 
-import com.github.mchernyakov.variousttlmap.VariousTtlMapImpl;
 import com.google.common.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.Phaser;
 import java.util.stream.IntStream;
 
+/**
+ * Cleaner with several workers.
+ * <p>
+ * {@link SamplingMode#SNAPSHOT}: the keys of the map are dealt round-robin into chunks, one chunk per worker.
+ * <p>
+ * {@link SamplingMode#RANDOM_PROBE}: the map is divided into {@link MultiThreadMapCleaner#numStripes} stripes,
+ * every worker owns the stripes {@code worker, worker + poolSize, ...} and runs the water mark loop per stripe.
+ * A worker which is done with its own stripes steals the rest of the stripes of the other workers.
+ * A worker which is out of its time budget puts the current stripe back to its owner, the next sessions start with
+ * the stripes left. The stripes are dealt again when all of them are done, so a stripe is never queued twice.
+ *
+ * @param <K>
+ * @param <V>
+ */
 public class MultiThreadMapCleaner<K, V> extends AbstractBackgroundMapCleaner<K, V> {
 
+    private static final int STRIPES_PER_WORKER = 4;
+
     private final BlockingQueue<List<K>> blockingQueue;
     private final Phaser phaser;
 
+    private final int numStripes;
+    private final Deque<Integer>[] stripeQueues;
+
     private volatile boolean isInitChunks = false;
 
-    public MultiThreadMapCleaner(VariousTtlMapImpl<K, V> variousTtlMap, Builder<K, V> builder) {
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MultiThreadMapCleaner(CleanableMap<K> variousTtlMap, Builder<K, V> builder) {
         super(variousTtlMap, builder);
 
         this.phaser = new Phaser();
         this.blockingQueue = new ArrayBlockingQueue<>(this.poolSize);
+
+        this.numStripes = Integer.highestOneBit(this.poolSize * STRIPES_PER_WORKER - 1) << 1;
+        this.stripeQueues = new Deque[this.poolSize];
+        for (int i = 0; i < this.poolSize; i++) {
+            this.stripeQueues[i] = new ConcurrentLinkedDeque<>();
+        }
+    }
+
+    @Override
+    void runProbeSession(int worker, Session session) {
+        if (allStripesDone()) {
+            Deque<Integer> ownStripes = this.stripeQueues[worker];
+            for (int stripe = worker; stripe < this.numStripes; stripe += this.poolSize) {
+                ownStripes.addLast(stripe);
+            }
+        }
+
+        Integer stripe;
+        while ((stripe = nextStripe(worker)) != null) {
+            if (!cleanStripe(stripe, this.numStripes, session)) {
+                // resume from this stripe next time, a stolen one goes back to its owner
+                this.stripeQueues[stripe % this.poolSize].addFirst(stripe);
+                return;
+            }
+        }
+    }
+
+    private boolean allStripesDone() {
+        for (Deque<Integer> stripes : this.stripeQueues) {
+            if (!stripes.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @VisibleForTesting
+    List<Integer> queuedStripes(int worker) {
+        return new ArrayList<>(this.stripeQueues[worker]);
+    }
+
+    private Integer nextStripe(int worker) {
+        Integer stripe = this.stripeQueues[worker].pollFirst();
+        if (stripe != null) {
+            return stripe;
+        }
+
+        // steal from the tail of the other workers
+        for (int i = 1; i < this.poolSize; i++) {
+            stripe = this.stripeQueues[(worker + i) % this.poolSize].pollLast();
+            if (stripe != null) {
+                return stripe;
+            }
+        }
+        return null;
     }
 
     @Override
@@ -53,7 +129,10 @@ public class MultiThreadMapCleaner<K, V> extends AbstractBackgroundMapCleaner<K,
     }
 
     private void initAndPutChunks() {
-        Set<K> keys = this.map.getStore().keySet();
+        // chunks which were not taken by the previous session
+        this.blockingQueue.clear();
+
+        Set<K> keys = this.map.keySet();
         List<List<K>> chunks = buildChunks(keys);
         chunks.forEach(this::offerChunk);
     }
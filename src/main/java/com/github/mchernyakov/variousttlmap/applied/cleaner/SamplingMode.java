@@ -0,0 +1,18 @@
+package com.github.mchernyakov.variousttlmap.applied.cleaner;
+
+/**
+ * Where {@link CleanerType#RANDOM_SAMPLING} cleaners take keys to check.
+ */
+public enum SamplingMode {
+
+    /**
+     * Copy of the key set of the map every session, random keys are taken from the copy.
+     */
+    SNAPSHOT,
+
+    /**
+     * Random positions of the backing table of the map, nothing is copied.
+     * Allocation of a session depends on the number of checked keys, not on the size of the map.
+     */
+    RANDOM_PROBE
+}
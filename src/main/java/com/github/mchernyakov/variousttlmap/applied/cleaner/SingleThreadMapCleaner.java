@@ -1,6 +1,5 @@
 package com.github.mchernyakov.variousttlmap.applied.cleaner;
 
-import com.github.mchernyakov.variousttlmap.VariousTtlMapImpl;
 import com.google.common.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
@@ -8,13 +7,15 @@ import java.util.List;
 
 public class SingleThreadMapCleaner<K, V> extends AbstractBackgroundMapCleaner<K, V> {
 
-    public SingleThreadMapCleaner(VariousTtlMapImpl<K, V> variousTtlMap, Builder<K, V> builder) {
+    private boolean isKeysTaken = false;
+
+    public SingleThreadMapCleaner(CleanableMap<K> variousTtlMap, Builder<K, V> builder) {
         super(variousTtlMap, builder);
     }
 
     @Override
     void additionalInit() {
-        // no-op
+        isKeysTaken = false;
     }
 
     @Override
@@ -24,7 +25,13 @@ public class SingleThreadMapCleaner<K, V> extends AbstractBackgroundMapCleaner<K
 
     @VisibleForTesting
     protected List<K> getKeys() {
+        // one array per session
+        if (isKeysTaken) {
+            return null;
+        }
+        isKeysTaken = true;
+
         //TODO expensive operation
-        return new ArrayList<>(map.getStore().keySet());
+        return new ArrayList<>(map.keySet());
     }
 }
@@ -0,0 +1,388 @@
+package com.github.mchernyakov.variousttlmap.applied.cleaner;
+
+import com.github.mchernyakov.variousttlmap.Ticker;
+import com.github.mchernyakov.variousttlmap.stats.StatsCounter;
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import com.github.mchernyakov.variousttlmap.util.ThreadUtil;
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Map cleaner based on a hierarchical timing wheel.
+ * <p>
+ * Every key has at most one timer in {@link TimingWheelMapCleaner#timers}. A write of the key sets the expiration
+ * tick of its timer and queues the timer to {@link TimingWheelMapCleaner#pending} (once, until the cleaner takes it).
+ * The cleaner thread moves queued timers to the slots of their ticks and, every tick ({@link TimingWheelMapCleaner#tickNanos}),
+ * removes the keys of the slots which are due. So memory is O(keys), a session costs O(expired keys)
+ * and a key lives at most one tick longer than its ttl.
+ * <p>
+ * The wheel has {@link TimingWheelMapCleaner#LEVELS} levels of {@link TimingWheelMapCleaner#WHEEL_SIZE} slots,
+ * a slot is a list of timers, timers of the upper levels cascade to the lower ones when their slot comes.
+ * Timers further than the whole wheel wait in its last slot and are rescheduled from there.
+ * <p>
+ * A removed key queues its timer too, the cleaner drops the timer if the key is not in the map.
+ * Timers are dropped under the lock of their key in {@link TimingWheelMapCleaner#timers},
+ * so a concurrent write of the key either keeps the timer or creates a new one.
+ * <p>
+ * Ticks are counted by the {@link Ticker} of the map, the cleaner thread looks at it every tick of real time.
+ * With a {@link CleanerScheduler} the tick is a job of the scheduler instead of the own thread.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class TimingWheelMapCleaner<K, V> implements BackgroundMapCleaner<K, V> {
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheelMapCleaner.class);
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Ticker ticker;
+    private final CleanableMap<K> map;
+    private final ScheduledExecutorService executorService;
+    private final CleanerScheduler scheduler;
+    private CleanerScheduler.Registration registration;
+
+    private final ConcurrentHashMap<K, Timer<K>> timers = new ConcurrentHashMap<>();
+    private final Queue<Timer<K>> pending = new ConcurrentLinkedQueue<>();
+    private final Timer<K>[][] wheel;
+
+    private final AtomicInteger epoch = new AtomicInteger();
+    private int wheelEpoch;
+    private long currentTick;
+    private int numFired;
+    private volatile double expiredRatio;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheelMapCleaner(CleanableMap<K> variousTtlMap, BackgroundMapCleaner.Builder<K, V> builder) {
+        Preconditions.checkArgument(builder.delayTime > 0);
+
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(builder.delayTime);
+        map = variousTtlMap;
+        ticker = map.getTicker();
+        startNanos = ticker.read();
+        wheel = new Timer[LEVELS][WHEEL_SIZE];
+        for (Timer<K>[] slots : wheel) {
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = Timer.head();
+            }
+        }
+
+        scheduler = builder.scheduler;
+        executorService = scheduler == null
+                ? Executors.newSingleThreadScheduledExecutor(ThreadUtil.threadFactory("map-cleaner"))
+                : null;
+    }
+
+    @Override
+    public synchronized void startCleaners() {
+        if (scheduler == null) {
+            executorService.scheduleAtFixedRate(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+            return;
+        }
+        registration = scheduler.register(new CleanerScheduler.Job() {
+            @Override
+            public long run() {
+                tick();
+                return tickNanos;
+            }
+
+            @Override
+            public double expiredRatio() {
+                return expiredRatio;
+            }
+        }, tickNanos);
+    }
+
+    @Override
+    public void onWrite(K key, long expiration) {
+        long tick = tickOf(expiration);
+        // under the lock of the key, a timer which is being dropped is dead here
+        Timer<K> timer = timers.compute(key, (k, current) -> {
+            Timer<K> live = current == null || current.dead ? new Timer<>(k, epoch.get()) : current;
+            live.tick = tick;
+            return live;
+        });
+        timer.queue(pending);
+    }
+
+    @Override
+    public void onRemove(K key) {
+        Timer<K> timer = timers.get(key);
+        if (timer != null) {
+            timer.queue(pending);
+        }
+    }
+
+    /**
+     * Drops all timers, the wheel is emptied by the next tick.
+     */
+    @Override
+    public void onClear() {
+        epoch.incrementAndGet();
+        timers.clear();
+    }
+
+    private long tickOf(long nanos) {
+        // a key is expired after its expiration time, so it is due at the next tick
+        return (nanos - startNanos) / tickNanos + 1;
+    }
+
+    private void tick() {
+        try {
+            long start = System.nanoTime();
+            int removed = advance(tickOf(ticker.read()) - 1);
+            map.reclaim();
+            expiredRatio = numFired == 0 ? 0 : removed / (double) numFired;
+
+            StatsCounter statsCounter = map.getStatsCounter();
+            statsCounter.recordCleanerRemovals(removed);
+            statsCounter.recordCleanerSession(System.nanoTime() - start, numFired, removed);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Finish clean. num done {}", removed);
+            }
+        } catch (Exception e) {
+            logger.warn("Error while cleaning map", e);
+        }
+    }
+
+    /**
+     * Moves the queued timers, then moves the wheel to the tick and removes expired keys.
+     *
+     * @return number of removed keys
+     */
+    @VisibleForTesting
+    int advance(long nowTick) {
+        int currentEpoch = epoch.get();
+        if (currentEpoch != wheelEpoch) {
+            resetWheel(currentEpoch);
+        }
+
+        numFired = 0;
+        int removed = 0;
+        Timer<K> timer;
+        while ((timer = pending.poll()) != null) {
+            // a write after this queues the timer again
+            timer.queued = 0;
+            // timers of an earlier clear are not in the map, timers of a later one are queued by the next reset
+            if (timer.dead || timer.epoch != wheelEpoch) {
+                continue;
+            }
+            timer.unlink();
+            if (!dropIfAbsent(timer) && schedule(timer)) {
+                removed += fire(timer);
+            }
+        }
+
+        while (currentTick < nowTick) {
+            currentTick++;
+
+            // upper levels first, their timers can go to the slots of the lower levels for this tick
+            int topLevel = 0;
+            while (topLevel < LEVELS - 1 && (currentTick & ((1L << (WHEEL_BITS * (topLevel + 1))) - 1)) == 0) {
+                topLevel++;
+            }
+            for (int level = topLevel; level >= 0; level--) {
+                removed += cascade(level, (int) (currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+            }
+        }
+        return removed;
+    }
+
+    private int cascade(int level, int slot) {
+        Timer<K> head = wheel[level][slot];
+        Timer<K> timer = head.next;
+        head.next = head;
+        head.prev = head;
+
+        int removed = 0;
+        while (timer != head) {
+            Timer<K> next = timer.next;
+            timer.next = null;
+            timer.prev = null;
+            // a timer of an upper level can be due here too, every due timer is a sampled key
+            if (schedule(timer)) {
+                removed += fire(timer);
+            }
+            timer = next;
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the key of the due timer if it is expired. The timer is dropped with the key,
+     * or stays for the next tick if the key is still in the map (its write will queue it with the new tick).
+     *
+     * @return 1 if the key was removed
+     */
+    private int fire(Timer<K> timer) {
+        numFired++;
+        boolean removed = map.removeIfExpired(timer.key);
+        if (!dropIfAbsent(timer)) {
+            link(timer, Math.max(timer.tick, currentTick + 1));
+        }
+        return removed ? 1 : 0;
+    }
+
+    /**
+     * Drops the timer if its key is not in the map or has another timer.
+     * The timer is marked dead under the lock of the key, so {@link TimingWheelMapCleaner#onWrite(Object, long)}
+     * either sees it alive before the drop (and the key in the map) or replaces it.
+     *
+     * @return true if the timer was dropped
+     */
+    private boolean dropIfAbsent(Timer<K> timer) {
+        if (timers.get(timer.key) == timer && map.containsKey(timer.key)) {
+            return false;
+        }
+        timers.compute(timer.key, (key, current) -> {
+            if (current == timer && map.containsKey(key)) {
+                return current;
+            }
+            timer.dead = true;
+            return current == timer ? null : current;
+        });
+        return timer.dead;
+    }
+
+    /**
+     * Puts the timer into the wheel.
+     *
+     * @return true if the timer is due and was not put
+     */
+    private boolean schedule(Timer<K> timer) {
+        long tick = timer.tick;
+        if (tick - currentTick <= 0) {
+            return true;
+        }
+        link(timer, tick);
+        return false;
+    }
+
+    private void link(Timer<K> timer, long tick) {
+        long delta = tick - currentTick;
+        if (delta > MAX_DELTA) {
+            tick = currentTick + MAX_DELTA;
+            delta = MAX_DELTA;
+        }
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+
+        int slot = (int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+        Timer<K> head = wheel[level][slot];
+        timer.prev = head;
+        timer.next = head.next;
+        head.next.prev = timer;
+        head.next = timer;
+    }
+
+    /**
+     * Empties the wheel after a clear and queues the timers written since then.
+     */
+    private void resetWheel(int newEpoch) {
+        for (Timer<K>[] slots : wheel) {
+            for (Timer<K> head : slots) {
+                head.next = head;
+                head.prev = head;
+            }
+        }
+        wheelEpoch = newEpoch;
+        for (Timer<K> timer : timers.values()) {
+            timer.next = null;
+            timer.prev = null;
+            timer.epoch = newEpoch;
+            timer.queue(pending);
+        }
+    }
+
+    /**
+     * @return number of timers, one per key at most
+     */
+    @VisibleForTesting
+    int numTimers() {
+        return timers.size();
+    }
+
+    @Override
+    public void shutdown() {
+        if (scheduler == null) {
+            ThreadUtil.shutdownExecutorService(executorService);
+        } else {
+            synchronized (this) {
+                if (registration != null) {
+                    registration.cancel();
+                }
+            }
+        }
+        pending.clear();
+        timers.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "TimingWheelMapCleaner{" +
+                "tickNanos=" + tickNanos +
+                ", currentTick=" + currentTick +
+                '}';
+    }
+
+    private static final class Timer<K> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<Timer> QUEUED =
+                AtomicIntegerFieldUpdater.newUpdater(Timer.class, "queued");
+
+        final K key;
+        volatile long tick;
+        volatile int queued;
+        volatile boolean dead;
+
+        // changed by the cleaner thread only
+        int epoch;
+        Timer<K> prev;
+        Timer<K> next;
+
+        Timer(K key, int epoch) {
+            this.key = key;
+            this.epoch = epoch;
+        }
+
+        static <K> Timer<K> head() {
+            Timer<K> head = new Timer<>(null, 0);
+            head.prev = head;
+            head.next = head;
+            return head;
+        }
+
+        void queue(Queue<Timer<K>> pending) {
+            if (queued == 0 && QUEUED.compareAndSet(this, 0, 1)) {
+                pending.add(this);
+            }
+        }
+
+        void unlink() {
+            if (prev != null) {
+                prev.next = next;
+                next.prev = prev;
+                prev = null;
+                next = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.mchernyakov.variousttlmap.applied.eviction;
+
+import com.github.mchernyakov.variousttlmap.RemovalCause;
+import com.github.mchernyakov.variousttlmap.RemovalListener;
+import com.github.mchernyakov.variousttlmap.applied.storage.Storage;
+import com.github.mchernyakov.variousttlmap.stats.StatsCounter;
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Sampled eviction, the same idea as Redis maxmemory policies.
+ * <p>
+ * While the storage is over its bound, the writing thread takes {@link SampledEvictor#NUM_SAMPLES} random keys
+ * of the storage and removes the one with the least {@link SampledEvictor#rank(Object)}.
+ * An expired key of the sample is removed as expired and counted as a cleaner removal, not as an eviction.
+ * Both are reported to the {@link RemovalListener} if there is one.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public abstract class SampledEvictor<K, V> {
+
+    private static final int NUM_SAMPLES = 5;
+
+    protected final Storage<K, V> storage;
+    private final StatsCounter statsCounter;
+    private final RemovalListener<K, V> removalListener;
+
+    protected SampledEvictor(@NotNull Storage<K, V> storage, @NotNull StatsCounter statsCounter,
+                             @Nullable RemovalListener<K, V> removalListener) {
+        this.storage = Preconditions.checkNotNull(storage);
+        this.statsCounter = Preconditions.checkNotNull(statsCounter);
+        this.removalListener = removalListener;
+    }
+
+    /**
+     * @return true if the storage is over the bound
+     */
+    abstract boolean isOverflow();
+
+    /**
+     * @return rank of the key, the key with the least one is evicted; {@link Long#MAX_VALUE} if there is no such key
+     */
+    abstract long rank(@NotNull K key);
+
+    /**
+     * @param expiredBefore keys expired before the time are removed first
+     */
+    public void evictIfNeeded(long expiredBefore) {
+        while (isOverflow()) {
+            if (!evictOne(expiredBefore)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return false if there is nothing to evict
+     */
+    private boolean evictOne(long expiredBefore) {
+        K victim = null;
+        long victimRank = Long.MAX_VALUE;
+        for (int i = 0; i < NUM_SAMPLES; i++) {
+            K key = storage.randomKey(0, 1);
+            if (key == null) {
+                continue;
+            }
+            V expired = storage.removeIfExpired(key, expiredBefore);
+            if (expired != null) {
+                statsCounter.recordCleanerRemovals(1);
+                notifyRemoval(key, expired, RemovalCause.EXPIRED);
+                return true;
+            }
+
+            long rank = rank(key);
+            if (rank != Long.MAX_VALUE && (victim == null || rank < victimRank)) {
+                victim = key;
+                victimRank = rank;
+            }
+        }
+
+        if (victim == null) {
+            return false;
+        }
+        V evicted = storage.remove(victim);
+        if (evicted != null) {
+            statsCounter.recordEvictions(1);
+            notifyRemoval(victim, evicted, RemovalCause.EVICTED);
+        }
+        return true;
+    }
+
+    private void notifyRemoval(K key, V value, RemovalCause cause) {
+        if (removalListener != null) {
+            removalListener.onRemoval(key, value, cause);
+        }
+    }
+}
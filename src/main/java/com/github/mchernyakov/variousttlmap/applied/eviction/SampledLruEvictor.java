@@ -0,0 +1,48 @@
+package com.github.mchernyakov.variousttlmap.applied.eviction;
+
+import com.github.mchernyakov.variousttlmap.RemovalListener;
+import com.github.mchernyakov.variousttlmap.applied.storage.Storage;
+import com.github.mchernyakov.variousttlmap.stats.StatsCounter;
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Approximate LRU eviction by the number of keys (Redis allkeys-lru), the storage has to track access time.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class SampledLruEvictor<K, V> extends SampledEvictor<K, V> {
+
+    private final long maximumSize;
+
+    public SampledLruEvictor(@NotNull Storage<K, V> storage, @NotNull StatsCounter statsCounter,
+                             @Nullable RemovalListener<K, V> removalListener, long maximumSize) {
+        super(storage, statsCounter, removalListener);
+        Preconditions.checkArgument(maximumSize > 0);
+
+        this.maximumSize = maximumSize;
+    }
+
+    @Override
+    boolean isOverflow() {
+        return storage.size() > maximumSize;
+    }
+
+    @Override
+    long rank(@NotNull K key) {
+        return storage.getAccessTime(key);
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    @Override
+    public String toString() {
+        return "SampledLruEvictor{" +
+                "maximumSize=" + maximumSize +
+                '}';
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.mchernyakov.variousttlmap.applied.eviction;
+
+import com.github.mchernyakov.variousttlmap.RemovalListener;
+import com.github.mchernyakov.variousttlmap.applied.storage.Storage;
+import com.github.mchernyakov.variousttlmap.stats.StatsCounter;
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Eviction by the total weight of the entries, the key closest to expiry is evicted first (Redis volatile-ttl).
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class SampledWeightEvictor<K, V> extends SampledEvictor<K, V> {
+
+    private final long maximumWeight;
+
+    public SampledWeightEvictor(@NotNull Storage<K, V> storage, @NotNull StatsCounter statsCounter,
+                                @Nullable RemovalListener<K, V> removalListener, long maximumWeight) {
+        super(storage, statsCounter, removalListener);
+        Preconditions.checkArgument(maximumWeight >= 0);
+
+        this.maximumWeight = maximumWeight;
+    }
+
+    @Override
+    boolean isOverflow() {
+        return storage.weightedSize() > maximumWeight;
+    }
+
+    @Override
+    long rank(@NotNull K key) {
+        long expiration = storage.getExpiration(key);
+        return expiration == 0 ? Long.MAX_VALUE : expiration;
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    @Override
+    public String toString() {
+        return "SampledWeightEvictor{" +
+                "maximumWeight=" + maximumWeight +
+                '}';
+    }
+}
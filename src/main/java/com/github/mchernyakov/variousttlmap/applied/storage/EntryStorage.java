@@ -0,0 +1,370 @@
+package com.github.mchernyakov.variousttlmap.applied.storage;
+
+import com.github.mchernyakov.variousttlmap.Ticker;
+import com.github.mchernyakov.variousttlmap.Weigher;
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Storage with a single map: key + node (value and the time when the key will be expired).
+ * <p>
+ * Reads need one lookup and no lock.
+ * Expired entries are removed with {@link ConcurrentHashMap#remove(Object, Object)},
+ * so a concurrent put of the same key is never removed by mistake.
+ * <p>
+ * With {@link EntryStorage#trackAccess} every node keeps the time of its last read or write,
+ * a read writes it at most once per {@link EntryStorage#ACCESS_RESOLUTION}, so hot keys don't bounce a cache line.
+ * <p>
+ * {@link EntryStorage#extendExpiration(Object, long, long)} moves the expiration time of the node with CAS,
+ * a put of the key replaces the node, so the extension of the old one is lost.
+ * <p>
+ * With {@link EntryStorage#weigher} every node keeps its weight and {@link EntryStorage#totalWeight}
+ * follows every put and removal of a node.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class EntryStorage<K, V> implements Storage<K, V> {
+
+    private static final long ACCESS_RESOLUTION = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ConcurrentHashMap<K, Node<V>> store;
+    private final Map<K, V> view;
+    private final boolean trackAccess;
+    private final Weigher<? super K, ? super V> weigher;
+    private final LongAdder totalWeight = new LongAdder();
+    private final Ticker ticker;
+
+    public EntryStorage() {
+        this(false, null, Ticker.systemTicker());
+    }
+
+    /**
+     * @param trackAccess keep the time of the last access of the entries
+     * @param weigher     weigher of the entries or null
+     * @param ticker      time of the writes for the access time
+     */
+    public EntryStorage(boolean trackAccess, @Nullable Weigher<? super K, ? super V> weigher, @NotNull Ticker ticker) {
+        store = new ConcurrentHashMap<>();
+        view = new ValueView();
+        this.trackAccess = trackAccess;
+        this.weigher = weigher;
+        this.ticker = Preconditions.checkNotNull(ticker);
+    }
+
+    @Override
+    @Nullable
+    public V get(@NotNull K key, long now) {
+        Node<V> node = store.get(key);
+        if (node == null || node.isExpired(now)) {
+            return null;
+        }
+        if (trackAccess && now - node.accessTime > ACCESS_RESOLUTION) {
+            node.accessTime = now;
+        }
+        return node.value;
+    }
+
+    @Override
+    public V put(@NotNull K key, V value, long expiration) {
+        Node<V> node = new Node<>(value, expiration, weigh(key, value));
+        if (trackAccess) {
+            node.accessTime = ticker.read();
+        }
+        Node<V> oldNode = store.put(key, node);
+        if (weigher != null) {
+            totalWeight.add(oldNode == null ? node.weight : node.weight - oldNode.weight);
+        }
+        return valueOf(oldNode);
+    }
+
+    private int weigh(@NotNull K key, V value) {
+        if (weigher == null) {
+            return 0;
+        }
+        int weight = weigher.weigh(key, value);
+        Preconditions.checkArgument(weight >= 0);
+        return weight;
+    }
+
+    @Override
+    public V remove(@NotNull K key) {
+        return valueOf(removed(store.remove(key)));
+    }
+
+    private boolean remove(@NotNull Object key, @NotNull Node<V> node) {
+        if (store.remove(key, node)) {
+            removed(node);
+            return true;
+        }
+        return false;
+    }
+
+    @Nullable
+    private Node<V> removed(@Nullable Node<V> node) {
+        if (node != null && weigher != null) {
+            totalWeight.add(-node.weight);
+        }
+        return node;
+    }
+
+    @Override
+    @Nullable
+    public V removeIfExpired(@NotNull K key, long now) {
+        Node<V> node = store.get(key);
+        if (node != null && node.isExpired(now) && remove(key, node)) {
+            return node.value;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isExpired(@NotNull K key, long now) {
+        Node<V> node = store.get(key);
+        return node == null || node.isExpired(now);
+    }
+
+    @Override
+    public long getExpiration(@NotNull K key) {
+        Node<V> node = store.get(key);
+        return node == null ? 0 : node.expiration;
+    }
+
+    @Override
+    public boolean extendExpiration(@NotNull K key, long expiration, long minStep) {
+        Node<V> node = store.get(key);
+        return node != null && node.extend(expiration, minStep);
+    }
+
+    @Override
+    public long getAccessTime(@NotNull K key) {
+        if (!trackAccess) {
+            return Storage.super.getAccessTime(key);
+        }
+        Node<V> node = store.get(key);
+        return node == null ? Long.MAX_VALUE : node.accessTime;
+    }
+
+    @Override
+    @Nullable
+    public K randomKey(int stripe, int numStripes) {
+        return KeySampler.randomKey(store, stripe, numStripes);
+    }
+
+    @Override
+    public void clear() {
+        if (weigher == null) {
+            store.clear();
+            return;
+        }
+        // node by node, so the total weight stays in line with concurrent puts
+        store.forEach(this::remove);
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public long weightedSize() {
+        return weigher == null ? store.size() : totalWeight.sum();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return store.isEmpty();
+    }
+
+    @Override
+    public Map<K, V> asMap() {
+        return view;
+    }
+
+    private static <V> V valueOf(@Nullable Node<V> node) {
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public String toString() {
+        return "EntryStorage{" +
+                "store=" + store +
+                '}';
+    }
+
+    static final class Node<V> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicLongFieldUpdater<Node> EXPIRATION = AtomicLongFieldUpdater.newUpdater(Node.class, "expiration");
+
+        final V value;
+        volatile long expiration;
+        final int weight;
+        volatile long accessTime;
+
+        Node(V value, long expiration, int weight) {
+            this.value = value;
+            this.expiration = expiration;
+            this.weight = weight;
+        }
+
+        boolean isExpired(long now) {
+            return now > expiration;
+        }
+
+        boolean extend(long newExpiration, long minStep) {
+            for (; ; ) {
+                long current = expiration;
+                if (newExpiration - current <= minStep) {
+                    return false;
+                }
+                if (EXPIRATION.compareAndSet(this, current, newExpiration)) {
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    /**
+     * Keys and raw values (expired ones too) of the store.
+     */
+    private final class ValueView extends AbstractMap<K, V> {
+
+        @Override
+        public V get(Object key) {
+            return valueOf(store.get(key));
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return store.containsKey(key);
+        }
+
+        @Override
+        public V remove(Object key) {
+            return valueOf(removed(store.remove(key)));
+        }
+
+        @Override
+        public int size() {
+            return store.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return store.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            EntryStorage.this.clear();
+        }
+
+        /**
+         * Removals through the keys go through the weight of the entries, as the ones of the map.
+         */
+        @Override
+        @NotNull
+        public Set<K> keySet() {
+            return new AbstractSet<K>() {
+                @Override
+                @NotNull
+                public Iterator<K> iterator() {
+                    Iterator<Map.Entry<K, V>> iterator = entrySet().iterator();
+                    return new Iterator<K>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public K next() {
+                            return iterator.next().getKey();
+                        }
+
+                        @Override
+                        public void remove() {
+                            iterator.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Object key) {
+                    return store.containsKey(key);
+                }
+
+                @Override
+                public boolean remove(Object key) {
+                    return ValueView.this.remove(key) != null;
+                }
+
+                @Override
+                public int size() {
+                    return store.size();
+                }
+
+                @Override
+                public void clear() {
+                    EntryStorage.this.clear();
+                }
+            };
+        }
+
+        @Override
+        @NotNull
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new AbstractSet<Map.Entry<K, V>>() {
+                @Override
+                @NotNull
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    Iterator<Map.Entry<K, Node<V>>> iterator = store.entrySet().iterator();
+                    return new Iterator<Map.Entry<K, V>>() {
+                        private Map.Entry<K, Node<V>> last;
+
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<K, V> next() {
+                            Map.Entry<K, Node<V>> next = iterator.next();
+                            last = next;
+                            return new SimpleImmutableEntry<>(next.getKey(), next.getValue().value);
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (last == null) {
+                                throw new IllegalStateException();
+                            }
+                            EntryStorage.this.remove(last.getKey(), last.getValue());
+                            last = null;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return store.size();
+                }
+            };
+        }
+    }
+}
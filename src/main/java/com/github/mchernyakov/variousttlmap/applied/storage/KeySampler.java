@@ -0,0 +1,87 @@
+package com.github.mchernyakov.variousttlmap.applied.storage;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Random keys of {@link ConcurrentHashMap} without copying its key set.
+ * <p>
+ * The spliterator of the map splits the bins of its table in halves, so a random walk down the splits
+ * ends at a random small range of the table, then a key of the range is chosen with reservoir sampling.
+ * If the range is empty, the neighbour range of the last split is used.
+ * <p>
+ * A stripe is a range of the table too: the first splits follow the bits of the stripe number.
+ * A sample allocates O(log(size)) small spliterators, nothing is copied.
+ */
+final class KeySampler {
+
+    private static final int MAX_ATTEMPTS = 16;
+    private static final int RANGE_SIZE = 1;
+
+    private KeySampler() {
+    }
+
+    @Nullable
+    static <K> K randomKey(ConcurrentHashMap<K, ?> map, int stripe, int numStripes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Reservoir<K> reservoir = new Reservoir<>(random);
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            if (map.isEmpty()) {
+                return null;
+            }
+
+            Spliterator<K> spliterator = map.keySet().spliterator();
+            for (int bit = numStripes >>> 1; bit > 0; bit >>>= 1) {
+                Spliterator<K> upper = spliterator.trySplit();
+                if (upper == null) {
+                    break;
+                }
+                if ((stripe & bit) != 0) {
+                    spliterator = upper;
+                }
+            }
+
+            Spliterator<K> neighbour = null;
+            Spliterator<K> prefix;
+            while (spliterator.estimateSize() > RANGE_SIZE && (prefix = spliterator.trySplit()) != null) {
+                if (random.nextBoolean()) {
+                    neighbour = spliterator;
+                    spliterator = prefix;
+                } else {
+                    neighbour = prefix;
+                }
+            }
+
+            spliterator.forEachRemaining(reservoir);
+            if (reservoir.count == 0 && neighbour != null) {
+                neighbour.forEachRemaining(reservoir);
+            }
+            if (reservoir.count > 0) {
+                return reservoir.key;
+            }
+        }
+        return null;
+    }
+
+    private static final class Reservoir<K> implements Consumer<K> {
+        final ThreadLocalRandom random;
+        K key;
+        int count;
+
+        Reservoir(ThreadLocalRandom random) {
+            this.random = random;
+        }
+
+        @Override
+        public void accept(K k) {
+            count++;
+            if (random.nextInt(count) == 0) {
+                key = k;
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.github.mchernyakov.variousttlmap.applied.storage;
+
+import com.github.mchernyakov.variousttlmap.Serializer;
+import com.github.mchernyakov.variousttlmap.Ticker;
+import com.github.mchernyakov.variousttlmap.aof.AppendOnlyLog;
+import com.github.mchernyakov.variousttlmap.aof.FsyncPolicy;
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import it.unimi.dsi.fastutil.HashCommon;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Storage which writes its changes to an {@link AppendOnlyLog}, the changes are made by the wrapped storage.
+ * <p>
+ * A change and its record are made under the lock of the stripe of the key, so the records of a key
+ * are in the order of its changes; {@link LoggedStorage#clear()} takes all the locks.
+ * With {@link FsyncPolicy#ALWAYS} the writer waits for its record out of the lock.
+ * Removals of expired keys are logged too, bulk writes go key by key.
+ * <p>
+ * The log is replayed into the wrapped storage before it is opened. Changes made through {@link LoggedStorage#asMap()}
+ * are not logged.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class LoggedStorage<K, V> implements Storage<K, V> {
+    private static final Logger logger = LoggerFactory.getLogger(LoggedStorage.class);
+
+    private static final int NUM_LOCKS = 64;
+
+    private final Storage<K, V> storage;
+    private final AppendOnlyLog<K, V> log;
+    private final ReentrantLock[] locks = new ReentrantLock[NUM_LOCKS];
+    private final Ticker ticker;
+
+    /**
+     * @param minRewriteSize the log is not rewritten while it is smaller, bytes
+     */
+    public LoggedStorage(@NotNull Storage<K, V> storage,
+                         @NotNull Path path,
+                         @NotNull FsyncPolicy fsyncPolicy,
+                         @NotNull Serializer<K> keySerializer,
+                         @NotNull Serializer<V> valueSerializer,
+                         long minRewriteSize,
+                         @NotNull Ticker ticker) throws IOException {
+        this.storage = Preconditions.checkNotNull(storage);
+        this.ticker = Preconditions.checkNotNull(ticker);
+        for (int i = 0; i < NUM_LOCKS; i++) {
+            locks[i] = new ReentrantLock();
+        }
+
+        long replayed = AppendOnlyLog.replay(path, keySerializer, valueSerializer, new AppendOnlyLog.Replayer<K, V>() {
+            @Override
+            public void put(@NotNull K key, @NotNull V value, long expireAtMillis) {
+                storage.put(key, value, ticker.read() + TimeUnit.MILLISECONDS.toNanos(expireAtMillis - System.currentTimeMillis()));
+            }
+
+            @Override
+            public void remove(@NotNull K key) {
+                storage.remove(key);
+            }
+
+            @Override
+            public void clear() {
+                storage.clear();
+            }
+        });
+        logger.info("Replayed {} records of {}, {} keys", replayed, path, storage.size());
+
+        log = new AppendOnlyLog<>(path, fsyncPolicy, keySerializer, valueSerializer, minRewriteSize, this::dump);
+    }
+
+    private ReentrantLock lockOf(@NotNull Object key) {
+        return locks[HashCommon.mix(key.hashCode()) & (NUM_LOCKS - 1)];
+    }
+
+    private long wallClock(long expiration) {
+        return System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(expiration - ticker.read());
+    }
+
+    private void dump(AppendOnlyLog.EntryWriter<K, V> writer) throws IOException {
+        for (Map.Entry<K, V> entry : storage.asMap().entrySet()) {
+            K key = entry.getKey();
+            V value = entry.getValue();
+            long expiration = storage.getExpiration(key);
+            if (value != null && expiration - ticker.read() > 0) {
+                writer.write(key, value, wallClock(expiration));
+            }
+        }
+    }
+
+    @Override
+    @Nullable
+    public V get(@NotNull K key, long now) {
+        return storage.get(key, now);
+    }
+
+    @Override
+    public V put(@NotNull K key, V value, long expiration) {
+        V oldValue;
+        long seq;
+        ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            oldValue = storage.put(key, value, expiration);
+            seq = log.appendPut(key, value, wallClock(expiration));
+        } finally {
+            lock.unlock();
+        }
+        log.awaitDurable(seq);
+        return oldValue;
+    }
+
+    @Override
+    public V remove(@NotNull K key) {
+        V oldValue;
+        long seq = 0;
+        ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            oldValue = storage.remove(key);
+            if (oldValue != null) {
+                seq = log.appendRemove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+        log.awaitDurable(seq);
+        return oldValue;
+    }
+
+    @Override
+    @Nullable
+    public V removeIfExpired(@NotNull K key, long now) {
+        V oldValue;
+        long seq = 0;
+        ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            oldValue = storage.removeIfExpired(key, now);
+            if (oldValue != null) {
+                seq = log.appendExpire(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+        log.awaitDurable(seq);
+        return oldValue;
+    }
+
+    @Override
+    public boolean isExpired(@NotNull K key, long now) {
+        return storage.isExpired(key, now);
+    }
+
+    @Override
+    public long getExpiration(@NotNull K key) {
+        return storage.getExpiration(key);
+    }
+
+    /**
+     * A moved expiration time is logged as a put of the current value, the check before the lock
+     * keeps reads which move nothing out of the lock.
+     */
+    @Override
+    public boolean extendExpiration(@NotNull K key, long expiration, long minStep) {
+        if (expiration - storage.getExpiration(key) <= minStep) {
+            return false;
+        }
+
+        long seq = 0;
+        ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            if (!storage.extendExpiration(key, expiration, minStep)) {
+                return false;
+            }
+            V value = storage.asMap().get(key);
+            if (value != null) {
+                seq = log.appendPut(key, value, wallClock(expiration));
+            }
+        } finally {
+            lock.unlock();
+        }
+        log.awaitDurable(seq);
+        return true;
+    }
+
+    @Override
+    public long getAccessTime(@NotNull K key) {
+        return storage.getAccessTime(key);
+    }
+
+    @Override
+    public Map<K, V> getAll(@NotNull Collection<? extends K> keys, long now) {
+        return storage.getAll(keys, now);
+    }
+
+    @Override
+    @Nullable
+    public K randomKey(int stripe, int numStripes) {
+        return storage.randomKey(stripe, numStripes);
+    }
+
+    @Override
+    public void clear() {
+        long seq;
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            storage.clear();
+            seq = log.appendClear();
+        } finally {
+            for (ReentrantLock lock : locks) {
+                lock.unlock();
+            }
+        }
+        log.awaitDurable(seq);
+    }
+
+    @Override
+    public int size() {
+        return storage.size();
+    }
+
+    @Override
+    public long weightedSize() {
+        return storage.weightedSize();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return storage.isEmpty();
+    }
+
+    @Override
+    public Map<K, V> asMap() {
+        return storage.asMap();
+    }
+
+    @Override
+    public void reclaim() {
+        storage.reclaim();
+    }
+
+    /**
+     * Closes the log, then releases the wrapped storage.
+     */
+    @Override
+    public void release() {
+        log.close();
+        storage.release();
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return storage.offHeapBytes();
+    }
+
+    @Override
+    public String toString() {
+        return "LoggedStorage{" +
+                "storage=" + storage +
+                '}';
+    }
+}
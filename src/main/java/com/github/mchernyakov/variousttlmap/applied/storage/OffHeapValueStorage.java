@@ -0,0 +1,341 @@
+package com.github.mchernyakov.variousttlmap.applied.storage;
+
+import com.github.mchernyakov.variousttlmap.Serializer;
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import it.unimi.dsi.fastutil.HashCommon;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Storage with values outside of the heap: key + handle (address of the serialized value and the expiration time).
+ * <p>
+ * Values are serialized by {@link Serializer} into chunks of {@link SlabArena}s, an arena is chosen by the key hash,
+ * so writes of different keys rarely share a lock. Only keys and small handles are on the heap.
+ * <p>
+ * A removed or replaced value frees its chunk, the chunk is reused after {@link OffHeapValueStorage#reclaim()}
+ * which is called by the background cleaner after every session.
+ * A read which raced with the reuse of its chunk sees another stamp and reads the key again.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class OffHeapValueStorage<K, V> implements Storage<K, V> {
+
+    private static final int DEFAULT_ARENAS = 16;
+    private static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    private final ConcurrentHashMap<K, Handle> store = new ConcurrentHashMap<>();
+    private final Map<K, V> view = new ValueView();
+    private final Serializer<V> serializer;
+    private final SlabArena[] arenas;
+    private final int mask;
+
+    public OffHeapValueStorage(@NotNull Serializer<V> serializer) {
+        this(serializer, DEFAULT_ARENAS, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param numArenas number of arenas, power of two
+     * @param slabSize  bytes of a slab, power of two
+     */
+    public OffHeapValueStorage(@NotNull Serializer<V> serializer, int numArenas, int slabSize) {
+        Preconditions.checkArgument(numArenas > 0 && Integer.bitCount(numArenas) == 1);
+        this.serializer = Preconditions.checkNotNull(serializer);
+        arenas = new SlabArena[numArenas];
+        for (int i = 0; i < numArenas; i++) {
+            arenas[i] = new SlabArena(slabSize);
+        }
+        mask = numArenas - 1;
+    }
+
+    private SlabArena arena(@NotNull Object key) {
+        return arenas[HashCommon.mix(key.hashCode()) & mask];
+    }
+
+    @Override
+    @Nullable
+    public V get(@NotNull K key, long now) {
+        Handle handle = store.get(key);
+        while (handle != null && !handle.isExpired(now)) {
+            byte[] bytes = arena(key).read(handle.address, handle.length, handle.stamp);
+            if (bytes != null) {
+                return serializer.deserialize(bytes);
+            }
+            // replaced, its chunk is already reused
+            handle = store.get(key);
+        }
+        return null;
+    }
+
+    @Override
+    public V put(@NotNull K key, V value, long expiration) {
+        byte[] bytes = serializer.serialize(value);
+        SlabArena arena = arena(key);
+        long address = arena.allocate(bytes.length);
+        int stamp = arena.write(address, bytes);
+        return removed(key, store.put(key, new Handle(address, bytes.length, stamp, expiration)));
+    }
+
+    @Override
+    public V remove(@NotNull K key) {
+        return removed(key, store.remove(key));
+    }
+
+    /**
+     * Reads the value of the handle which is not in the store any more and frees its chunk.
+     */
+    @Nullable
+    private V removed(@NotNull Object key, @Nullable Handle handle) {
+        if (handle == null) {
+            return null;
+        }
+        SlabArena arena = arena(key);
+        byte[] bytes = arena.read(handle.address, handle.length, handle.stamp);
+        arena.free(handle.address);
+        return bytes == null ? null : serializer.deserialize(bytes);
+    }
+
+    private boolean remove(@NotNull Object key, @NotNull Handle handle) {
+        if (store.remove(key, handle)) {
+            arena(key).free(handle.address);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    @Nullable
+    public V removeIfExpired(@NotNull K key, long now) {
+        Handle handle = store.get(key);
+        if (handle != null && handle.isExpired(now) && store.remove(key, handle)) {
+            return removed(key, handle);
+        }
+        return null;
+    }
+
+    @Override
+    public int removeAll(@NotNull Collection<? extends K> keys) {
+        int removed = 0;
+        for (K key : keys) {
+            Handle handle = store.remove(key);
+            if (handle != null) {
+                arena(key).free(handle.address);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean isExpired(@NotNull K key, long now) {
+        Handle handle = store.get(key);
+        return handle == null || handle.isExpired(now);
+    }
+
+    @Override
+    public long getExpiration(@NotNull K key) {
+        Handle handle = store.get(key);
+        return handle == null ? 0 : handle.expiration;
+    }
+
+    @Override
+    public boolean extendExpiration(@NotNull K key, long expiration, long minStep) {
+        Handle handle = store.get(key);
+        return handle != null && handle.extend(expiration, minStep);
+    }
+
+    @Override
+    @Nullable
+    public K randomKey(int stripe, int numStripes) {
+        return KeySampler.randomKey(store, stripe, numStripes);
+    }
+
+    @Override
+    public void clear() {
+        store.forEach(this::remove);
+        reclaim();
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return store.isEmpty();
+    }
+
+    @Override
+    public Map<K, V> asMap() {
+        return view;
+    }
+
+    @Override
+    public void reclaim() {
+        for (SlabArena arena : arenas) {
+            arena.reclaim();
+        }
+    }
+
+    @Override
+    public void release() {
+        store.clear();
+        for (SlabArena arena : arenas) {
+            arena.release();
+        }
+    }
+
+    @Override
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (SlabArena arena : arenas) {
+            bytes += arena.allocatedBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapValueStorage{" +
+                "size=" + store.size() +
+                ", offHeapBytes=" + offHeapBytes() +
+                '}';
+    }
+
+    private static final class Handle {
+        private static final AtomicLongFieldUpdater<Handle> EXPIRATION = AtomicLongFieldUpdater.newUpdater(Handle.class, "expiration");
+
+        final long address;
+        final int length;
+        final int stamp;
+        volatile long expiration;
+
+        Handle(long address, int length, int stamp, long expiration) {
+            this.address = address;
+            this.length = length;
+            this.stamp = stamp;
+            this.expiration = expiration;
+        }
+
+        boolean isExpired(long now) {
+            return now > expiration;
+        }
+
+        boolean extend(long newExpiration, long minStep) {
+            for (; ; ) {
+                long current = expiration;
+                if (newExpiration - current <= minStep) {
+                    return false;
+                }
+                if (EXPIRATION.compareAndSet(this, current, newExpiration)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Keys and raw values (expired ones too) of the store, values are deserialized on every access.
+     */
+    private final class ValueView extends AbstractMap<K, V> {
+
+        @Override
+        public V get(Object key) {
+            return get(key, store.get(key));
+        }
+
+        @Nullable
+        private V get(Object key, @Nullable Handle handle) {
+            while (handle != null) {
+                byte[] bytes = arena(key).read(handle.address, handle.length, handle.stamp);
+                if (bytes != null) {
+                    return serializer.deserialize(bytes);
+                }
+                handle = store.get(key);
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return store.containsKey(key);
+        }
+
+        @Override
+        public V remove(Object key) {
+            return removed(key, store.remove(key));
+        }
+
+        @Override
+        public int size() {
+            return store.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return store.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            OffHeapValueStorage.this.clear();
+        }
+
+        @Override
+        @NotNull
+        public Set<K> keySet() {
+            return store.keySet();
+        }
+
+        @Override
+        @NotNull
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new AbstractSet<Map.Entry<K, V>>() {
+                @Override
+                @NotNull
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    Iterator<Map.Entry<K, Handle>> iterator = store.entrySet().iterator();
+                    return new Iterator<Map.Entry<K, V>>() {
+                        private Map.Entry<K, Handle> last;
+
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<K, V> next() {
+                            Map.Entry<K, Handle> next = iterator.next();
+                            last = next;
+                            return new SimpleImmutableEntry<>(next.getKey(), get(next.getKey(), next.getValue()));
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (last == null) {
+                                throw new IllegalStateException();
+                            }
+                            OffHeapValueStorage.this.remove(last.getKey(), last.getValue());
+                            last = null;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return store.size();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.github.mchernyakov.variousttlmap.applied.storage;
+
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Chunks of memory in direct {@link ByteBuffer} slabs, memcached-like.
+ * <p>
+ * Chunk sizes are powers of two, every slab is cut into chunks of one size.
+ * A chunk starts with a stamp (int) which is incremented by every write, a reader compares it
+ * with the stamp it got at the write, so a chunk which was freed and reused is never read as the old value.
+ * Writes hold the write lock of the slab, reads are optimistic.
+ * <p>
+ * Freed chunks are pending until {@link SlabArena#reclaim()}, then they go to the free lists and are reused.
+ * Slabs are never freed before {@link SlabArena#release()}.
+ * <p>
+ * Address of a chunk: slab id (high int) and offset (low int).
+ */
+final class SlabArena {
+
+    static final int HEADER_SIZE = 4;
+    private static final int MIN_CHUNK_SHIFT = 4;
+    private static final int MAX_CHUNK_SHIFT = 30;
+
+    private final int slabSize;
+
+    private volatile Slab[] slabs = new Slab[16];
+    private int numSlabs;
+    private final Slab[] current = new Slab[MAX_CHUNK_SHIFT + 1];
+    private final LongArrayList[] free = new LongArrayList[MAX_CHUNK_SHIFT + 1];
+    private final LongArrayList pending = new LongArrayList();
+    private long allocatedBytes;
+
+    SlabArena(int slabSize) {
+        Preconditions.checkArgument(slabSize > 0 && Integer.bitCount(slabSize) == 1);
+        this.slabSize = slabSize;
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new LongArrayList();
+        }
+    }
+
+    /**
+     * @return address of a chunk for {@code length} bytes
+     */
+    synchronized long allocate(int length) {
+        int shift = chunkShift(length + HEADER_SIZE);
+        LongArrayList chunks = free[shift];
+        if (!chunks.isEmpty()) {
+            return chunks.popLong();
+        }
+
+        Slab slab = current[shift];
+        if (slab == null || slab.top == slab.buffer.capacity()) {
+            slab = newSlab(Math.max(slabSize, 1 << shift), 1 << shift);
+            current[shift] = slab;
+        }
+        int offset = slab.top;
+        slab.top += slab.chunkSize;
+        return address(slab.id, offset);
+    }
+
+    private Slab newSlab(int capacity, int chunkSize) {
+        Slab[] table = slabs;
+        if (numSlabs == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        Slab slab = new Slab(numSlabs, ByteBuffer.allocateDirect(capacity), chunkSize);
+        table[numSlabs++] = slab;
+        slabs = table;
+        allocatedBytes += capacity;
+        return slab;
+    }
+
+    private static int chunkShift(int size) {
+        int shift = Math.max(MIN_CHUNK_SHIFT, 32 - Integer.numberOfLeadingZeros(size - 1));
+        if (shift > MAX_CHUNK_SHIFT) {
+            throw new IllegalArgumentException("value is too big: " + size);
+        }
+        return shift;
+    }
+
+    /**
+     * Writes the bytes to the chunk, the chunk must be allocated and not freed.
+     *
+     * @return stamp of the value
+     */
+    int write(long address, byte[] bytes) {
+        Slab slab = slab(address);
+        int offset = offset(address);
+        long lockStamp = slab.lock.writeLock();
+        try {
+            ByteBuffer buffer = slab.buffer();
+            int stamp = buffer.getInt(offset) + 1;
+            buffer.putInt(offset, stamp);
+            ByteBuffer chunk = buffer.duplicate();
+            chunk.position(offset + HEADER_SIZE);
+            chunk.put(bytes);
+            return stamp;
+        } finally {
+            slab.lock.unlockWrite(lockStamp);
+        }
+    }
+
+    /**
+     * @return bytes of the chunk or null if the chunk was rewritten after the write with the stamp
+     */
+    @Nullable
+    byte[] read(long address, int length, int stamp) {
+        Slab slab = slab(address);
+        int offset = offset(address);
+        byte[] bytes = new byte[length];
+
+        long lockStamp = slab.lock.tryOptimisticRead();
+        if (lockStamp != 0) {
+            boolean valid = copy(slab.buffer(), offset, bytes, stamp);
+            if (slab.lock.validate(lockStamp)) {
+                return valid ? bytes : null;
+            }
+        }
+
+        lockStamp = slab.lock.readLock();
+        try {
+            return copy(slab.buffer(), offset, bytes, stamp) ? bytes : null;
+        } finally {
+            slab.lock.unlockRead(lockStamp);
+        }
+    }
+
+    private static boolean copy(ByteBuffer buffer, int offset, byte[] bytes, int stamp) {
+        if (buffer.getInt(offset) != stamp) {
+            return false;
+        }
+        ByteBuffer chunk = buffer.duplicate();
+        chunk.position(offset + HEADER_SIZE);
+        chunk.get(bytes);
+        return true;
+    }
+
+    /**
+     * The chunk is reused after {@link SlabArena#reclaim()}.
+     */
+    void free(long address) {
+        synchronized (pending) {
+            pending.add(address);
+        }
+    }
+
+    /**
+     * Moves the freed chunks to the free lists.
+     *
+     * @return number of reclaimed chunks
+     */
+    int reclaim() {
+        long[] addresses;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return 0;
+            }
+            addresses = pending.toLongArray();
+            pending.clear();
+        }
+
+        synchronized (this) {
+            for (long address : addresses) {
+                free[Integer.numberOfTrailingZeros(slab(address).chunkSize)].add(address);
+            }
+        }
+        return addresses.length;
+    }
+
+    /**
+     * Drops all slabs, their memory is freed by GC, so a concurrent read never touches freed memory.
+     */
+    synchronized void release() {
+        Slab[] table = slabs;
+        for (int i = 0; i < numSlabs; i++) {
+            long lockStamp = table[i].lock.writeLock();
+            table[i].buffer = null;
+            table[i].lock.unlockWrite(lockStamp);
+        }
+        slabs = new Slab[16];
+        numSlabs = 0;
+        Arrays.fill(current, null);
+        for (LongArrayList chunks : free) {
+            chunks.clear();
+        }
+        synchronized (pending) {
+            pending.clear();
+        }
+        allocatedBytes = 0;
+    }
+
+    /**
+     * @return bytes of all slabs
+     */
+    synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private Slab slab(long address) {
+        return slabs[(int) (address >>> 32)];
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private static long address(int slabId, int offset) {
+        return ((long) slabId << 32) | offset;
+    }
+
+    private static final class Slab {
+        final int id;
+        final int chunkSize;
+        final StampedLock lock = new StampedLock();
+        volatile ByteBuffer buffer;
+        int top;
+
+        Slab(int id, ByteBuffer buffer, int chunkSize) {
+            this.id = id;
+            this.buffer = buffer;
+            this.chunkSize = chunkSize;
+        }
+
+        ByteBuffer buffer() {
+            ByteBuffer buf = buffer;
+            if (buf == null) {
+                throw new IllegalStateException("slab arena is released");
+            }
+            return buf;
+        }
+    }
+}
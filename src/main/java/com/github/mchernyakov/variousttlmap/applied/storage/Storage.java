@@ -0,0 +1,146 @@
+package com.github.mchernyakov.variousttlmap.applied.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keys, values and expiration time of the map.
+ * <p>
+ * Time is in nanos of the {@link com.github.mchernyakov.variousttlmap.Ticker} of the map.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public interface Storage<K, V> {
+
+    /**
+     * @return value if the key exists and is not expired at {@code now}, otherwise null
+     */
+    @Nullable
+    V get(@NotNull K key, long now);
+
+    V put(@NotNull K key, V value, long expiration);
+
+    V remove(@NotNull K key);
+
+    /**
+     * Removes the key only if it is expired at {@code now}.
+     *
+     * @return removed value or null if nothing was removed
+     */
+    @Nullable
+    V removeIfExpired(@NotNull K key, long now);
+
+    boolean isExpired(@NotNull K key, long now);
+
+    /**
+     * @return expiration time of the key or 0 if there is no such key
+     */
+    long getExpiration(@NotNull K key);
+
+    /**
+     * Moves the expiration time of the key to {@code expiration} if the key exists and the time is later
+     * by more than {@code minStep}, so frequent calls write at most once per step.
+     *
+     * @return true if the expiration time was moved
+     * @throws UnsupportedOperationException if the storage can't move the expiration time
+     */
+    default boolean extendExpiration(@NotNull K key, long expiration, long minStep) {
+        throw new UnsupportedOperationException("expiration can't be extended by " + getClass().getSimpleName());
+    }
+
+    /**
+     * @return time of the last read or write of the key, {@link Long#MAX_VALUE} if there is no such key
+     * @throws UnsupportedOperationException if the storage doesn't track access
+     */
+    default long getAccessTime(@NotNull K key) {
+        throw new UnsupportedOperationException("access time is not tracked by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Puts all entries with the same expiration time.
+     */
+    default void putAll(@NotNull Map<? extends K, ? extends V> map, long expiration) {
+        map.forEach((key, value) -> put(key, value, expiration));
+    }
+
+    /**
+     * @return values of the keys which exist and are not expired at {@code now}
+     */
+    default Map<K, V> getAll(@NotNull Collection<? extends K> keys, long now) {
+        Map<K, V> res = new HashMap<>();
+        for (K key : keys) {
+            V value = get(key, now);
+            if (value != null) {
+                res.put(key, value);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return number of removed keys
+     */
+    default int removeAll(@NotNull Collection<? extends K> keys) {
+        int removed = 0;
+        for (K key : keys) {
+            if (remove(key) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Stripes are disjoint ranges of the backing table of the storage.
+     *
+     * @param stripe     number of the stripe, from 0 to numStripes
+     * @param numStripes power of two
+     * @return random key (expired or not) of the stripe or null if there is no key
+     */
+    @Nullable
+    K randomKey(int stripe, int numStripes);
+
+    void clear();
+
+    int size();
+
+    /**
+     * @return total weight of the entries, the number of entries if they are not weighed
+     */
+    default long weightedSize() {
+        return size();
+    }
+
+    boolean isEmpty();
+
+    /**
+     * @return live view of keys and values
+     */
+    Map<K, V> asMap();
+
+    /**
+     * Makes memory of removed entries reusable, called by the background cleaner.
+     */
+    default void reclaim() {
+        // no-op
+    }
+
+    /**
+     * Releases resources of the storage, it can't be used after that.
+     */
+    default void release() {
+        // no-op
+    }
+
+    /**
+     * @return bytes of memory allocated outside of the heap
+     */
+    default long offHeapBytes() {
+        return 0;
+    }
+}
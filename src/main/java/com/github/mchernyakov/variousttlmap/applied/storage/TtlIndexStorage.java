@@ -0,0 +1,187 @@
+package com.github.mchernyakov.variousttlmap.applied.storage;
+
+import com.github.mchernyakov.variousttlmap.applied.TtlIndex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Storage with 2 maps:
+ * 1) store (key + value) {@link TtlIndexStorage#store},
+ * 2) map for ttl (key hash + ttl (when keys will be expired)) {@link TtlIndexStorage#ttlMap}.
+ * <p>
+ * Bulk operations go to the map for ttl as one batch, see {@link TtlIndex#putAll(int[], long[], int)}.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class TtlIndexStorage<K, V> implements Storage<K, V> {
+
+    private final ConcurrentHashMap<K, V> store;
+    private final TtlIndex ttlMap;
+
+    public TtlIndexStorage(TtlIndex ttlIndex) {
+        store = new ConcurrentHashMap<>();
+        ttlMap = ttlIndex;
+    }
+
+    @Override
+    @Nullable
+    public V get(@NotNull K key, long now) {
+        if (isExpired(key, now)) {
+            return null;
+        }
+        return store.get(key);
+    }
+
+    @Override
+    public V put(@NotNull K key, V value, long expiration) {
+        ttlMap.put(key.hashCode(), expiration);
+        return store.put(key, value);
+    }
+
+    @Override
+    public V remove(@NotNull K key) {
+        ttlMap.remove(key.hashCode());
+        return store.remove(key);
+    }
+
+    @Override
+    @Nullable
+    public V removeIfExpired(@NotNull K key, long now) {
+        if (isExpired(key, now)) {
+            return remove(key);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isExpired(@NotNull K key, long now) {
+        return now > ttlMap.get(key.hashCode());
+    }
+
+    /**
+     * The key hash is moved in the map for ttl only if it is there, see {@link TtlIndex#extend(int, long, long)}.
+     */
+    @Override
+    public boolean extendExpiration(@NotNull K key, long expiration, long minStep) {
+        return ttlMap.extend(key.hashCode(), expiration, minStep);
+    }
+
+    @Override
+    public long getExpiration(@NotNull K key) {
+        return ttlMap.get(key.hashCode());
+    }
+
+    @Override
+    public void putAll(@NotNull Map<? extends K, ? extends V> map, long expiration) {
+        int size = map.size();
+        int[] hashes = new int[size];
+        long[] expirations = new long[size];
+        int i = 0;
+        for (K key : map.keySet()) {
+            if (i == size) {
+                break;
+            }
+            hashes[i] = key.hashCode();
+            expirations[i] = expiration;
+            i++;
+        }
+        ttlMap.putAll(hashes, expirations, i);
+        store.putAll(map);
+    }
+
+    @Override
+    public Map<K, V> getAll(@NotNull Collection<? extends K> keys, long now) {
+        Object[] keyArray = keys.toArray();
+        int size = keyArray.length;
+        int[] hashes = new int[size];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = keyArray[i].hashCode();
+        }
+        long[] expirations = new long[size];
+        ttlMap.getAll(hashes, expirations, size);
+
+        Map<K, V> res = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (now > expirations[i]) {
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            K key = (K) keyArray[i];
+            V value = store.get(key);
+            if (value != null) {
+                res.put(key, value);
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public int removeAll(@NotNull Collection<? extends K> keys) {
+        Object[] keyArray = keys.toArray();
+        int size = keyArray.length;
+        int[] hashes = new int[size];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = keyArray[i].hashCode();
+        }
+        ttlMap.removeAll(hashes, size);
+
+        int removed = 0;
+        for (Object key : keyArray) {
+            if (store.remove(key) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    @Nullable
+    public K randomKey(int stripe, int numStripes) {
+        return KeySampler.randomKey(store, stripe, numStripes);
+    }
+
+    @Override
+    public void clear() {
+        store.clear();
+        ttlMap.clear();
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return store.isEmpty();
+    }
+
+    @Override
+    public Map<K, V> asMap() {
+        return store;
+    }
+
+    @Override
+    public void release() {
+        ttlMap.release();
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return ttlMap.offHeapBytes();
+    }
+
+    @Override
+    public String toString() {
+        return "TtlIndexStorage{" +
+                "store=" + store +
+                ", ttlMap=" + ttlMap +
+                '}';
+    }
+}
@@ -0,0 +1,446 @@
+package com.github.mchernyakov.variousttlmap.primitive;
+
+import com.github.mchernyakov.variousttlmap.Ticker;
+import com.github.mchernyakov.variousttlmap.applied.cleaner.BackgroundMapCleaner;
+import com.github.mchernyakov.variousttlmap.applied.cleaner.CleanableMap;
+import com.github.mchernyakov.variousttlmap.applied.cleaner.CleanerScheduler;
+import com.github.mchernyakov.variousttlmap.applied.cleaner.CleanerType;
+import com.github.mchernyakov.variousttlmap.applied.cleaner.SamplingMode;
+import com.github.mchernyakov.variousttlmap.stats.CacheStats;
+import com.github.mchernyakov.variousttlmap.stats.ConcurrentStatsCounter;
+import com.github.mchernyakov.variousttlmap.stats.StatsCounter;
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import it.unimi.dsi.fastutil.HashCommon;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Common part of the maps with primitive keys: segments, ttl, stats and the cleaner.
+ * <p>
+ * Keys are kept unboxed in striped fastutil open hash maps, see {@link Segment}: reads and writes
+ * allocate nothing. The subclasses only have the typed segments and the typed public methods,
+ * {@code int} keys are passed here as {@code long}.
+ * Every stripe has a {@link StampedLock}, reads take its read lock.
+ * <p>
+ * The cleaners work with boxed keys, so only the cleaner threads box them.
+ * The background cleaner probes random slots of the stripes, so only the keys it checks are boxed.
+ * {@link CleanerType#TIMING_WHEEL} needs a timer per key, so with it a write or a remove boxes the key too.
+ *
+ * @param <K> boxed key
+ * @param <V> value
+ */
+public abstract class AbstractPrimitiveTtlMap<K extends Number, V> implements CleanableMap<K> {
+
+    private final StatsCounter statsCounter;
+    private final long defaultTtl;
+    private final TimeUnit timeUnit = TimeUnit.SECONDS;
+    private final boolean notifyWrites;
+    protected final Ticker ticker;
+
+    private final Segment<K, V>[] segments;
+    private final int mask;
+    private final BackgroundMapCleaner<K, V> mapCleaner;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected AbstractPrimitiveTtlMap(Builder<?> builder) {
+        Preconditions.checkArgument(builder.defaultTtl > 0);
+        Preconditions.checkArgument(builder.buckets > 0 && Integer.bitCount(builder.buckets) == 1);
+
+        defaultTtl = timeUnit.toNanos(builder.defaultTtl);
+        ticker = Preconditions.checkNotNull(builder.ticker);
+        statsCounter = builder.recordStats ? new ConcurrentStatsCounter() : StatsCounter.disabled();
+        notifyWrites = builder.cleanerType == CleanerType.TIMING_WHEEL;
+
+        segments = new Segment[builder.buckets];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = newSegment();
+        }
+        mask = segments.length - 1;
+
+        mapCleaner = BackgroundMapCleaner.Builder
+                .newBuilder()
+                .setPoolSize(builder.cleaningPoolSize)
+                .setDelayTime(builder.delayMillis)
+                .setNumKeyCheck(builder.numCleaningAttemptsPerSession)
+                .setPercentWaterMark(builder.waterMarkPercent)
+                .setType(builder.cleanerType)
+                .setSamplingMode(builder.samplingMode)
+                .setScheduler(builder.cleanerScheduler)
+                .build(this);
+        mapCleaner.startCleaners();
+    }
+
+    /**
+     * Called by the constructor, so it must not use the fields of the subclass.
+     */
+    abstract Segment<K, V> newSegment();
+
+    /**
+     * @return empty set for a copy of the keys
+     */
+    abstract Set<K> newKeySet();
+
+    private Segment<K, V> segment(long key) {
+        return segments[HashCommon.mix(HashCommon.long2int(key)) & mask];
+    }
+
+    @Nullable
+    V getValue(long key) {
+        Segment<K, V> segment = segment(key);
+        long now = ticker.read();
+        V value;
+        long expiration;
+        long stamp = segment.lock.readLock();
+        try {
+            value = segment.value(key);
+            expiration = segment.expiration(key);
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+
+        if (value != null && now <= expiration) {
+            statsCounter.recordHit();
+            return value;
+        }
+        statsCounter.recordMiss();
+        if (value != null && removeIfExpired(key, now)) {
+            statsCounter.recordExpiredOnRead();
+        }
+        return null;
+    }
+
+    @Nullable
+    V putValue(long key, @NotNull V value) {
+        return putWithExpiration(key, value, ticker.read() + defaultTtl);
+    }
+
+    @Nullable
+    V putValue(long key, @NotNull V value, long ttlSeconds) {
+        return putWithExpiration(key, value, ticker.read() + timeUnit.toNanos(ttlSeconds));
+    }
+
+    @Nullable
+    private V putWithExpiration(long key, @NotNull V value, long expiration) {
+        Segment<K, V> segment = segment(key);
+        V oldValue;
+        long stamp = segment.lock.writeLock();
+        try {
+            oldValue = segment.put(key, value, expiration);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        if (notifyWrites) {
+            mapCleaner.onWrite(box(key), expiration);
+        }
+        return oldValue;
+    }
+
+    @Nullable
+    V removeValue(long key) {
+        Segment<K, V> segment = segment(key);
+        V value;
+        long stamp = segment.lock.writeLock();
+        try {
+            value = segment.remove(key);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        if (notifyWrites && value != null) {
+            mapCleaner.onRemove(box(key));
+        }
+        return value;
+    }
+
+    boolean removeIfExpired(long key, long now) {
+        Segment<K, V> segment = segment(key);
+        long stamp = segment.lock.writeLock();
+        try {
+            if (!segment.containsKey(key) || now <= segment.expiration(key)) {
+                return false;
+            }
+            segment.remove(key);
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the boxed key for the cleaner
+     */
+    abstract K box(long key);
+
+    @Override
+    public boolean removeIfExpired(@NotNull K key) {
+        return removeIfExpired(key.longValue(), ticker.read());
+    }
+
+    @Override
+    public boolean containsKey(@NotNull K key) {
+        Segment<K, V> segment = segment(key.longValue());
+        long stamp = segment.lock.readLock();
+        try {
+            return segment.containsKey(key.longValue());
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Probes a random slot of a random segment of the stripe, empty segments are skipped.
+     */
+    @Nullable
+    @Override
+    public K randomKey(int stripe, int numStripes) {
+        int numSegments = segmentsPerStripe(numStripes, segments.length);
+        int start = ThreadLocalRandom.current().nextInt(numSegments);
+        for (int i = 0; i < numSegments; i++) {
+            Segment<K, V> segment = segments[segmentOfStripe(stripe, numStripes, segments.length, start + i)];
+            long stamp = segment.lock.readLock();
+            try {
+                int slot = segment.randomSlot();
+                if (slot >= 0) {
+                    return segment.keyAt(slot);
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return copy of the keys
+     */
+    @Override
+    public Set<K> keySet() {
+        Set<K> keys = newKeySet();
+        for (Segment<K, V> segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                keys.addAll(segment.keys());
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                size += segment.size();
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        mapCleaner.onClear();
+        for (Segment<K, V> segment : segments) {
+            long stamp = segment.lock.writeLock();
+            try {
+                segment.clear();
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public BackgroundMapCleaner<K, V> getMapCleaner() {
+        return mapCleaner;
+    }
+
+    @Override
+    public StatsCounter getStatsCounter() {
+        return statsCounter;
+    }
+
+    @Override
+    public Ticker getTicker() {
+        return ticker;
+    }
+
+    /**
+     * @return snapshot of the stats, empty if stats are off
+     */
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    public void shutdown() {
+        mapCleaner.shutdown();
+        clear();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+                "numBuckets=" + segments.length +
+                ", size=" + size() +
+                ", mapCleaner=" + mapCleaner +
+                '}';
+    }
+
+    /**
+     * Segments of a stripe are {@code stripe + i * numStripes}, stripes share a segment if there are fewer segments.
+     *
+     * @return number of segments of a stripe
+     */
+    static int segmentsPerStripe(int numStripes, int numSegments) {
+        return numStripes >= numSegments ? 1 : numSegments / numStripes;
+    }
+
+    /**
+     * @return index of i-th segment of the stripe
+     */
+    static int segmentOfStripe(int stripe, int numStripes, int numSegments, int i) {
+        if (numStripes >= numSegments) {
+            return stripe & (numSegments - 1);
+        }
+        return stripe + (i & (numSegments / numStripes - 1)) * numStripes;
+    }
+
+    /**
+     * Stripe of the map: values and expiration times of the keys, guarded by {@link Segment#lock}.
+     * The methods take {@code long} keys, the segments of {@code int} keys narrow them.
+     *
+     * @param <K> boxed key
+     * @param <V> value
+     */
+    abstract static class Segment<K, V> {
+        final StampedLock lock = new StampedLock();
+
+        @Nullable
+        abstract V value(long key);
+
+        /**
+         * @return expiration time, 0 if there is no key
+         */
+        abstract long expiration(long key);
+
+        abstract boolean containsKey(long key);
+
+        @Nullable
+        abstract V put(long key, V value, long expiration);
+
+        @Nullable
+        abstract V remove(long key);
+
+        abstract int size();
+
+        abstract void clear();
+
+        /**
+         * @return a used slot next to a random one, or -1 if the segment is empty
+         */
+        abstract int randomSlot();
+
+        abstract K keyAt(int slot);
+
+        /**
+         * @return view of the keys, a fastutil collection of the primitive keys
+         */
+        abstract Collection<K> keys();
+    }
+
+    /**
+     * @param <B> builder
+     */
+    @SuppressWarnings("unchecked")
+    public abstract static class Builder<B extends Builder<B>> {
+        long defaultTtl;
+        int cleaningPoolSize = 1;
+        int numCleaningAttemptsPerSession = 10;
+        int waterMarkPercent = 10;
+        int delayMillis = 1000;
+        int buckets = 16;
+        CleanerType cleanerType = CleanerType.RANDOM_SAMPLING;
+        SamplingMode samplingMode = SamplingMode.RANDOM_PROBE;
+        CleanerScheduler cleanerScheduler;
+        boolean recordStats;
+        Ticker ticker = Ticker.systemTicker();
+
+        public B setDefaultTtl(long defaultTtl) {
+            this.defaultTtl = defaultTtl;
+            return (B) this;
+        }
+
+        public B setCleaningPoolSize(int cleaningPoolSize) {
+            this.cleaningPoolSize = cleaningPoolSize;
+            return (B) this;
+        }
+
+        public B setNumCleaningAttemptsPerSession(int numCleaningAttemptsPerSession) {
+            this.numCleaningAttemptsPerSession = numCleaningAttemptsPerSession;
+            return (B) this;
+        }
+
+        public B setWaterMarkPercent(int waterMarkPercent) {
+            this.waterMarkPercent = waterMarkPercent;
+            return (B) this;
+        }
+
+        public B setDelayMillis(int delayMillis) {
+            this.delayMillis = delayMillis;
+            return (B) this;
+        }
+
+        /**
+         * Number of lock stripes, power of two (default = 16).
+         */
+        public B setBuckets(int buckets) {
+            this.buckets = buckets;
+            return (B) this;
+        }
+
+        public B setCleanerType(CleanerType cleanerType) {
+            this.cleanerType = cleanerType;
+            return (B) this;
+        }
+
+        /**
+         * {@link SamplingMode#RANDOM_PROBE} by default, {@link SamplingMode#SNAPSHOT} copies and boxes all keys every session.
+         */
+        public B setSamplingMode(SamplingMode samplingMode) {
+            this.samplingMode = samplingMode;
+            return (B) this;
+        }
+
+        /**
+         * Shared threads of cleaning, see {@link CleanerScheduler}.
+         */
+        public B setCleanerScheduler(CleanerScheduler cleanerScheduler) {
+            this.cleanerScheduler = cleanerScheduler;
+            return (B) this;
+        }
+
+        public B recordStats() {
+            this.recordStats = true;
+            return (B) this;
+        }
+
+        /**
+         * Source of time for the ttl, {@link Ticker#systemTicker()} by default.
+         */
+        public B setTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return (B) this;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.mchernyakov.variousttlmap.primitive;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Map with {@code int} keys and ttl.
+ * <p>
+ * {@link IntVariousTtlMap#get(int)} and {@link IntVariousTtlMap#put(int, Object)} allocate nothing
+ * (except {@link com.github.mchernyakov.variousttlmap.applied.cleaner.CleanerType#TIMING_WHEEL}),
+ * see {@link AbstractPrimitiveTtlMap}.
+ *
+ * @param <V> value
+ */
+public class IntVariousTtlMap<V> extends AbstractPrimitiveTtlMap<Integer, V> {
+
+    private IntVariousTtlMap(Builder builder) {
+        super(builder);
+    }
+
+    @Override
+    Segment<Integer, V> newSegment() {
+        return new IntSegment<>();
+    }
+
+    @Override
+    Set<Integer> newKeySet() {
+        return new IntOpenHashSet();
+    }
+
+    @Override
+    Integer box(long key) {
+        return (int) key;
+    }
+
+    @Nullable
+    public V get(int key) {
+        return getValue(key);
+    }
+
+    @Nullable
+    public V put(int key, @NotNull V value) {
+        return putValue(key, value);
+    }
+
+    @Nullable
+    public V put(int key, @NotNull V value, long ttlSeconds) {
+        return putValue(key, value, ttlSeconds);
+    }
+
+    @Nullable
+    public V remove(int key) {
+        return removeValue(key);
+    }
+
+    public boolean removeIfExpired(int key) {
+        return removeIfExpired(key, ticker.read());
+    }
+
+    /**
+     * Keys are {@code int} values widened to {@code long} by the map.
+     */
+    private static final class IntSegment<V> extends Segment<Integer, V> {
+        final Int2ObjectOpenHashMap<V> values = new Int2ObjectOpenHashMap<>();
+        final SampledInt2LongMap expirations = new SampledInt2LongMap();
+
+        @Override
+        V value(long key) {
+            return values.get((int) key);
+        }
+
+        @Override
+        long expiration(long key) {
+            return expirations.get((int) key);
+        }
+
+        @Override
+        boolean containsKey(long key) {
+            return values.containsKey((int) key);
+        }
+
+        @Override
+        V put(long key, V value, long expiration) {
+            expirations.put((int) key, expiration);
+            return values.put((int) key, value);
+        }
+
+        @Override
+        V remove(long key) {
+            expirations.remove((int) key);
+            return values.remove((int) key);
+        }
+
+        @Override
+        int size() {
+            return values.size();
+        }
+
+        @Override
+        void clear() {
+            values.clear();
+            expirations.clear();
+        }
+
+        @Override
+        int randomSlot() {
+            return expirations.randomSlot();
+        }
+
+        @Override
+        Integer keyAt(int slot) {
+            return expirations.keyAt(slot);
+        }
+
+        @Override
+        Collection<Integer> keys() {
+            return values.keySet();
+        }
+    }
+
+    public static class Builder extends AbstractPrimitiveTtlMap.Builder<Builder> {
+
+        public static Builder newBuilder() {
+            return new Builder();
+        }
+
+        public <V> IntVariousTtlMap<V> build() {
+            return new IntVariousTtlMap<>(this);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.mchernyakov.variousttlmap.primitive;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Map with {@code long} keys and ttl.
+ * <p>
+ * {@link LongVariousTtlMap#get(long)} and {@link LongVariousTtlMap#put(long, Object)} allocate nothing
+ * (except {@link com.github.mchernyakov.variousttlmap.applied.cleaner.CleanerType#TIMING_WHEEL}),
+ * see {@link AbstractPrimitiveTtlMap}.
+ *
+ * @param <V> value
+ */
+public class LongVariousTtlMap<V> extends AbstractPrimitiveTtlMap<Long, V> {
+
+    private LongVariousTtlMap(Builder builder) {
+        super(builder);
+    }
+
+    @Override
+    Segment<Long, V> newSegment() {
+        return new LongSegment<>();
+    }
+
+    @Override
+    Set<Long> newKeySet() {
+        return new LongOpenHashSet();
+    }
+
+    @Override
+    Long box(long key) {
+        return key;
+    }
+
+    @Nullable
+    public V get(long key) {
+        return getValue(key);
+    }
+
+    @Nullable
+    public V put(long key, @NotNull V value) {
+        return putValue(key, value);
+    }
+
+    @Nullable
+    public V put(long key, @NotNull V value, long ttlSeconds) {
+        return putValue(key, value, ttlSeconds);
+    }
+
+    @Nullable
+    public V remove(long key) {
+        return removeValue(key);
+    }
+
+    public boolean removeIfExpired(long key) {
+        return removeIfExpired(key, ticker.read());
+    }
+
+    private static final class LongSegment<V> extends Segment<Long, V> {
+        final Long2ObjectOpenHashMap<V> values = new Long2ObjectOpenHashMap<>();
+        final SampledLong2LongMap expirations = new SampledLong2LongMap();
+
+        @Override
+        V value(long key) {
+            return values.get(key);
+        }
+
+        @Override
+        long expiration(long key) {
+            return expirations.get(key);
+        }
+
+        @Override
+        boolean containsKey(long key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        V put(long key, V value, long expiration) {
+            expirations.put(key, expiration);
+            return values.put(key, value);
+        }
+
+        @Override
+        V remove(long key) {
+            expirations.remove(key);
+            return values.remove(key);
+        }
+
+        @Override
+        int size() {
+            return values.size();
+        }
+
+        @Override
+        void clear() {
+            values.clear();
+            expirations.clear();
+        }
+
+        @Override
+        int randomSlot() {
+            return expirations.randomSlot();
+        }
+
+        @Override
+        Long keyAt(int slot) {
+            return expirations.keyAt(slot);
+        }
+
+        @Override
+        Collection<Long> keys() {
+            return values.keySet();
+        }
+    }
+
+    public static class Builder extends AbstractPrimitiveTtlMap.Builder<Builder> {
+
+        public static Builder newBuilder() {
+            return new Builder();
+        }
+
+        public <V> LongVariousTtlMap<V> build() {
+            return new LongVariousTtlMap<>(this);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.mchernyakov.variousttlmap.primitive;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link Long2LongOpenHashMap} with random access to its slots, keys are sampled without iterators.
+ * <p>
+ * The key {@code 0} is kept out of the table at index {@code n}, other free slots hold {@code 0}.
+ */
+final class SampledLong2LongMap extends Long2LongOpenHashMap {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @return a used slot next to a random one, or -1 if the map is empty
+     */
+    int randomSlot() {
+        if (size == 0) {
+            return -1;
+        }
+        int start = ThreadLocalRandom.current().nextInt(n + 1);
+        for (int i = 0; i <= n; i++) {
+            int slot = start + i > n ? start + i - n - 1 : start + i;
+            if (slot == n ? containsNullKey : key[slot] != 0) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    long keyAt(int slot) {
+        return slot == n ? 0 : key[slot];
+    }
+}
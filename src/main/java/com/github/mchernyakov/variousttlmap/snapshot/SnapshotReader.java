@@ -0,0 +1,125 @@
+package com.github.mchernyakov.variousttlmap.snapshot;
+
+import com.github.mchernyakov.variousttlmap.Serializer;
+import com.github.mchernyakov.variousttlmap.util.BufferUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a snapshot file written by {@link SnapshotWriter}.
+ * <p>
+ * The file is memory-mapped in windows of {@link SnapshotReader#WINDOW_SIZE} bytes (or one entry if it is bigger),
+ * a window is unmapped as soon as the next one is mapped.
+ * The remaining ttl of an entry is reduced by the wall clock time since the snapshot,
+ * entries which expired meanwhile are skipped without deserialization.
+ */
+public final class SnapshotReader {
+
+    private static final long WINDOW_SIZE = 1 << 28;
+
+    private SnapshotReader() {
+    }
+
+    /**
+     * @return number of entries passed to the consumer
+     */
+    public static <K, V> long read(@NotNull Path path,
+                                   @NotNull Serializer<K> keySerializer,
+                                   @NotNull Serializer<V> valueSerializer,
+                                   @NotNull EntryConsumer<K, V> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Window window = new Window(channel);
+            window.ensure(SnapshotWriter.HEADER_SIZE);
+            MappedByteBuffer buffer = window.buffer;
+            if (buffer.getInt() != SnapshotWriter.MAGIC) {
+                throw new IOException("not a snapshot: " + path);
+            }
+            int version = buffer.getInt();
+            if (version != SnapshotWriter.VERSION) {
+                throw new IOException("unsupported snapshot version " + version + ": " + path);
+            }
+            long elapsed = TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - buffer.getLong()));
+            long count = buffer.getLong();
+
+            long loaded = 0;
+            try {
+                for (long i = 0; i < count; i++) {
+                    window.ensure(Long.BYTES);
+                    long remainingTtl = window.buffer.getLong() - elapsed;
+                    byte[] keyBytes = window.bytes();
+                    byte[] valueBytes = window.bytes();
+                    if (remainingTtl > 0) {
+                        consumer.accept(keySerializer.deserialize(keyBytes), valueSerializer.deserialize(valueBytes), remainingTtl);
+                        loaded++;
+                    }
+                }
+            } finally {
+                BufferUtil.free(window.buffer);
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * Entry of a snapshot.
+     *
+     * @param <K> key
+     * @param <V> value
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<K, V> {
+
+        /**
+         * @param remainingTtl ttl left, nanos, positive
+         */
+        void accept(@NotNull K key, @NotNull V value, long remainingTtl);
+    }
+
+    private static final class Window {
+        final FileChannel channel;
+        final long size;
+        long position;
+        MappedByteBuffer buffer;
+
+        Window(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        /**
+         * Maps the next window if the current one has less than {@code length} bytes left.
+         */
+        void ensure(int length) throws IOException {
+            if (buffer != null && buffer.remaining() >= length) {
+                return;
+            }
+            if (buffer != null) {
+                position += buffer.position();
+                BufferUtil.free(buffer);
+                buffer = null;
+            }
+            if (size - position < length) {
+                throw new IOException("snapshot is truncated at " + position);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.max(length, Math.min(WINDOW_SIZE, size - position)));
+        }
+
+        byte[] bytes() throws IOException {
+            ensure(Integer.BYTES);
+            int length = buffer.getInt();
+            if (length < 0) {
+                throw new IOException("snapshot is corrupted at " + (position + buffer.position()));
+            }
+            ensure(length);
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.mchernyakov.variousttlmap.snapshot;
+
+import com.github.mchernyakov.variousttlmap.Serializer;
+import com.github.mchernyakov.variousttlmap.util.Preconditions;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes entries and their remaining ttl to a snapshot file.
+ * <p>
+ * Layout (big-endian): header - magic (int), version (int), wall clock time of the snapshot (long, millis),
+ * number of entries (long); then every entry - remaining ttl (long, nanos), key length (int), key bytes,
+ * value length (int), value bytes.
+ * <p>
+ * Entries go to a temporary file through a buffer, {@link SnapshotWriter#commit()} writes the number of entries,
+ * forces the file to disk and moves it to its path, so a snapshot file is always complete.
+ * {@link SnapshotWriter#close()} without a commit (a write has failed) deletes the temporary file.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public final class SnapshotWriter<K, V> implements Closeable {
+
+    static final int MAGIC = 0x5654544D;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int COUNT_OFFSET = 16;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path path;
+    private final Path tmpPath;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long count;
+    private boolean committed;
+
+    public SnapshotWriter(@NotNull Path path,
+                          @NotNull Serializer<K> keySerializer,
+                          @NotNull Serializer<V> valueSerializer) throws IOException {
+        this.path = path;
+        this.tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        this.keySerializer = Preconditions.checkNotNull(keySerializer);
+        this.valueSerializer = Preconditions.checkNotNull(valueSerializer);
+        channel = FileChannel.open(tmpPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putLong(0);
+    }
+
+    /**
+     * @param remainingTtl ttl left, nanos
+     */
+    public void write(@NotNull K key, @NotNull V value, long remainingTtl) throws IOException {
+        byte[] keyBytes = keySerializer.serialize(key);
+        byte[] valueBytes = valueSerializer.serialize(value);
+
+        ensure(Long.BYTES + Integer.BYTES);
+        buffer.putLong(remainingTtl);
+        put(keyBytes);
+        put(valueBytes);
+        count++;
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        ensure(Integer.BYTES);
+        buffer.putInt(bytes.length);
+        if (bytes.length > buffer.capacity()) {
+            flush();
+            writeFully(ByteBuffer.wrap(bytes));
+            return;
+        }
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void ensure(int size) throws IOException {
+        if (buffer.remaining() < size) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    /**
+     * @return number of written entries
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Writes the number of entries, forces the file to disk and moves it to its path.
+     * Must be called after the last entry, the writer is closed then.
+     */
+    public void commit() throws IOException {
+        flush();
+        ByteBuffer countBuffer = ByteBuffer.allocate(Long.BYTES);
+        countBuffer.putLong(0, count);
+        channel.write(countBuffer, COUNT_OFFSET);
+        channel.force(true);
+        channel.close();
+
+        try {
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+    }
+
+    /**
+     * Deletes the temporary file if the snapshot was not committed, the file at the path stays as it was.
+     */
+    @Override
+    public void close() throws IOException {
+        if (committed) {
+            return;
+        }
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+}
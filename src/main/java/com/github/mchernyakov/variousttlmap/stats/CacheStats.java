@@ -0,0 +1,203 @@
+package com.github.mchernyakov.variousttlmap.stats;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of {@link StatsCounter}.
+ */
+public final class CacheStats {
+
+    static final CacheStats EMPTY = new CacheStats(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            new long[ConcurrentStatsCounter.DURATION_BUCKETS], new long[ConcurrentStatsCounter.PERCENT_BUCKETS]);
+
+    private final long hitCount;
+    private final long missCount;
+    private final long expiredOnReadCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadNanos;
+    private final long evictionCount;
+    private final long cleanerRemovalCount;
+    private final long cleanerSessionCount;
+    private final long cleanerSampledCount;
+    private final long cleanerSessionNanos;
+    private final long[] sessionDurations;
+    private final long[] removedPercents;
+
+    CacheStats(long hitCount, long missCount, long expiredOnReadCount,
+               long loadSuccessCount, long loadFailureCount, long totalLoadNanos, long evictionCount,
+               long cleanerRemovalCount, long cleanerSessionCount, long cleanerSampledCount, long cleanerSessionNanos,
+               long[] sessionDurations, long[] removedPercents) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.expiredOnReadCount = expiredOnReadCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadNanos = totalLoadNanos;
+        this.evictionCount = evictionCount;
+        this.cleanerRemovalCount = cleanerRemovalCount;
+        this.cleanerSessionCount = cleanerSessionCount;
+        this.cleanerSampledCount = cleanerSampledCount;
+        this.cleanerSessionNanos = cleanerSessionNanos;
+        this.sessionDurations = sessionDurations;
+        this.removedPercents = removedPercents;
+    }
+
+    public long hitCount() {
+        return hitCount;
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * @return share of hits, 1 if there were no requests
+     */
+    public double hitRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * @return number of expired keys removed by reads (passive cleaning)
+     */
+    public long expiredOnReadCount() {
+        return expiredOnReadCount;
+    }
+
+    /**
+     * @return number of loads which returned a value
+     */
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    /**
+     * @return number of loads which returned null or threw an exception
+     */
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    public long totalLoadNanos() {
+        return totalLoadNanos;
+    }
+
+    /**
+     * @return number of live keys removed because the map was full
+     */
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return number of expired keys removed by the background cleaner (active cleaning)
+     * and by the eviction sampling
+     */
+    public long cleanerRemovalCount() {
+        return cleanerRemovalCount;
+    }
+
+    public long cleanerSessionCount() {
+        return cleanerSessionCount;
+    }
+
+    /**
+     * @return number of keys checked by the background cleaner
+     */
+    public long cleanerSampledCount() {
+        return cleanerSampledCount;
+    }
+
+    public long cleanerSessionNanos() {
+        return cleanerSessionNanos;
+    }
+
+    /**
+     * @return element i is the number of sessions which took from 2^i to 2^(i+1) nanos
+     */
+    public long[] sessionDurationHistogram() {
+        return sessionDurations.clone();
+    }
+
+    /**
+     * @return element i is the number of sessions which removed from i * 10 to (i + 1) * 10 percents of checked keys
+     */
+    public long[] removedPercentHistogram() {
+        return removedPercents.clone();
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return upper bound of the session duration (nanos) at the percentile, 0 if there were no sessions
+     */
+    public long sessionDurationPercentile(double percentile) {
+        long total = 0;
+        for (long count : sessionDurations) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < sessionDurations.length; i++) {
+            seen += sessionDurations[i];
+            if (seen >= rank && sessionDurations[i] > 0) {
+                return i == Long.SIZE - 1 ? Long.MAX_VALUE : 1L << (i + 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return sum of the stats, e.g. of several maps
+     */
+    public CacheStats plus(CacheStats other) {
+        return new CacheStats(
+                hitCount + other.hitCount,
+                missCount + other.missCount,
+                expiredOnReadCount + other.expiredOnReadCount,
+                loadSuccessCount + other.loadSuccessCount,
+                loadFailureCount + other.loadFailureCount,
+                totalLoadNanos + other.totalLoadNanos,
+                evictionCount + other.evictionCount,
+                cleanerRemovalCount + other.cleanerRemovalCount,
+                cleanerSessionCount + other.cleanerSessionCount,
+                cleanerSampledCount + other.cleanerSampledCount,
+                cleanerSessionNanos + other.cleanerSessionNanos,
+                plus(sessionDurations, other.sessionDurations),
+                plus(removedPercents, other.removedPercents));
+    }
+
+    private static long[] plus(long[] a, long[] b) {
+        long[] res = a.clone();
+        for (int i = 0; i < res.length; i++) {
+            res[i] += b[i];
+        }
+        return res;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", expiredOnReadCount=" + expiredOnReadCount +
+                ", loadSuccessCount=" + loadSuccessCount +
+                ", loadFailureCount=" + loadFailureCount +
+                ", evictionCount=" + evictionCount +
+                ", cleanerRemovalCount=" + cleanerRemovalCount +
+                ", cleanerSessionCount=" + cleanerSessionCount +
+                ", cleanerSampledCount=" + cleanerSampledCount +
+                ", cleanerSessionNanos=" + cleanerSessionNanos +
+                ", removedPercents=" + Arrays.toString(removedPercents) +
+                '}';
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.mchernyakov.variousttlmap.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link StatsCounter} on {@link LongAdder}s, threads don't contend on the counters.
+ * <p>
+ * Session durations go to the buckets of powers of two (nanos),
+ * the percent of removed keys of a session goes to the buckets of 10 percents.
+ */
+public class ConcurrentStatsCounter implements StatsCounter {
+
+    static final int DURATION_BUCKETS = Long.SIZE;
+    static final int PERCENT_BUCKETS = 11;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder expiredOnReadCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadNanos = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder cleanerRemovalCount = new LongAdder();
+    private final LongAdder cleanerSessionCount = new LongAdder();
+    private final LongAdder cleanerSampledCount = new LongAdder();
+    private final LongAdder cleanerSessionNanos = new LongAdder();
+
+    private final LongAdder[] sessionDurations = newBuckets(DURATION_BUCKETS);
+    private final LongAdder[] removedPercents = newBuckets(PERCENT_BUCKETS);
+
+    private static LongAdder[] newBuckets(int size) {
+        LongAdder[] buckets = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new LongAdder();
+        }
+        return buckets;
+    }
+
+    @Override
+    public void recordHit() {
+        hitCount.increment();
+    }
+
+    @Override
+    public void recordMiss() {
+        missCount.increment();
+    }
+
+    @Override
+    public void recordHits(int count) {
+        hitCount.add(count);
+    }
+
+    @Override
+    public void recordMisses(int count) {
+        missCount.add(count);
+    }
+
+    @Override
+    public void recordExpiredOnRead() {
+        expiredOnReadCount.increment();
+    }
+
+    @Override
+    public void recordLoad(long loadNanos, boolean success) {
+        if (success) {
+            loadSuccessCount.increment();
+        } else {
+            loadFailureCount.increment();
+        }
+        totalLoadNanos.add(loadNanos);
+    }
+
+    @Override
+    public void recordEvictions(int count) {
+        evictionCount.add(count);
+    }
+
+    @Override
+    public void recordCleanerRemovals(int count) {
+        cleanerRemovalCount.add(count);
+    }
+
+    @Override
+    public void recordCleanerSession(long durationNanos, int numSampled, int numRemoved) {
+        cleanerSessionCount.increment();
+        cleanerSampledCount.add(numSampled);
+        cleanerSessionNanos.add(durationNanos);
+
+        sessionDurations[durationBucket(durationNanos)].increment();
+        if (numSampled > 0) {
+            removedPercents[Math.min(PERCENT_BUCKETS - 1, numRemoved * 10 / numSampled)].increment();
+        }
+    }
+
+    /**
+     * @return i for durations from 2^i to 2^(i+1) nanos
+     */
+    static int durationBucket(long durationNanos) {
+        return durationNanos <= 0 ? 0 : Long.SIZE - 1 - Long.numberOfLeadingZeros(durationNanos);
+    }
+
+    @Override
+    public CacheStats snapshot() {
+        return new CacheStats(
+                hitCount.sum(),
+                missCount.sum(),
+                expiredOnReadCount.sum(),
+                loadSuccessCount.sum(),
+                loadFailureCount.sum(),
+                totalLoadNanos.sum(),
+                evictionCount.sum(),
+                cleanerRemovalCount.sum(),
+                cleanerSessionCount.sum(),
+                cleanerSampledCount.sum(),
+                cleanerSessionNanos.sum(),
+                sums(sessionDurations),
+                sums(removedPercents));
+    }
+
+    private static long[] sums(LongAdder[] buckets) {
+        long[] res = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            res[i] = buckets[i].sum();
+        }
+        return res;
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.mchernyakov.variousttlmap.stats;
+
+enum DisabledStatsCounter implements StatsCounter {
+    INSTANCE;
+
+    @Override
+    public void recordHit() {
+        // no-op
+    }
+
+    @Override
+    public void recordMiss() {
+        // no-op
+    }
+
+    @Override
+    public void recordHits(int count) {
+        // no-op
+    }
+
+    @Override
+    public void recordMisses(int count) {
+        // no-op
+    }
+
+    @Override
+    public void recordExpiredOnRead() {
+        // no-op
+    }
+
+    @Override
+    public void recordLoad(long loadNanos, boolean success) {
+        // no-op
+    }
+
+    @Override
+    public void recordEvictions(int count) {
+        // no-op
+    }
+
+    @Override
+    public void recordCleanerRemovals(int count) {
+        // no-op
+    }
+
+    @Override
+    public void recordCleanerSession(long durationNanos, int numSampled, int numRemoved) {
+        // no-op
+    }
+
+    @Override
+    public CacheStats snapshot() {
+        return CacheStats.EMPTY;
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.mchernyakov.variousttlmap.stats;
+
+/**
+ * Recorder of map and cleaner events.
+ * <p>
+ * {@link StatsCounter#disabled()} is used when stats are off, its methods are empty
+ * and the calls are inlined away by JIT.
+ */
+public interface StatsCounter {
+
+    static StatsCounter disabled() {
+        return DisabledStatsCounter.INSTANCE;
+    }
+
+    void recordHit();
+
+    void recordMiss();
+
+    void recordHits(int count);
+
+    void recordMisses(int count);
+
+    /**
+     * Expired key was removed by a read.
+     */
+    void recordExpiredOnRead();
+
+    /**
+     * @param loadNanos duration of the load
+     * @param success   true if the loader returned a value
+     */
+    void recordLoad(long loadNanos, boolean success);
+
+    /**
+     * Live keys were removed because the map was full.
+     */
+    void recordEvictions(int count);
+
+    /**
+     * Expired keys were removed by the background cleaner.
+     */
+    void recordCleanerRemovals(int count);
+
+    /**
+     * @param durationNanos duration of the session
+     * @param numSampled    number of checked keys
+     * @param numRemoved    number of removed keys
+     */
+    void recordCleanerSession(long durationNanos, int numSampled, int numRemoved);
+
+    CacheStats snapshot();
+}
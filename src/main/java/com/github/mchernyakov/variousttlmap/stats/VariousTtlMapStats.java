@@ -0,0 +1,124 @@
+package com.github.mchernyakov.variousttlmap.stats;
+
+import com.github.mchernyakov.variousttlmap.VariousTtlMapImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * {@link VariousTtlMapStatsMXBean} of a map, registered as
+ * {@code com.github.mchernyakov.variousttlmap:type=VariousTtlMap,name=<name>}.
+ */
+public class VariousTtlMapStats implements VariousTtlMapStatsMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(VariousTtlMapStats.class);
+
+    private static final String DOMAIN = "com.github.mchernyakov.variousttlmap";
+
+    private final VariousTtlMapImpl<?, ?> map;
+    private final ObjectName objectName;
+
+    private VariousTtlMapStats(VariousTtlMapImpl<?, ?> map, ObjectName objectName) {
+        this.map = map;
+        this.objectName = objectName;
+    }
+
+    public static VariousTtlMapStats register(VariousTtlMapImpl<?, ?> map, String name) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=VariousTtlMap,name=" + ObjectName.quote(name));
+            VariousTtlMapStats mbean = new VariousTtlMapStats(map, objectName);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+            return mbean;
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't register mbean " + name, e);
+        }
+    }
+
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            logger.warn("Can't unregister mbean {}", objectName, e);
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    @Override
+    public long getSize() {
+        return map.size();
+    }
+
+    @Override
+    public long getWeightedSize() {
+        return map.weightedSize();
+    }
+
+    @Override
+    public long getHitCount() {
+        return map.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return map.stats().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return map.stats().hitRate();
+    }
+
+    @Override
+    public long getExpiredOnReadCount() {
+        return map.stats().expiredOnReadCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return map.stats().evictionCount();
+    }
+
+    @Override
+    public long getCleanerRemovalCount() {
+        return map.stats().cleanerRemovalCount();
+    }
+
+    @Override
+    public long getCleanerSessionCount() {
+        return map.stats().cleanerSessionCount();
+    }
+
+    @Override
+    public long getCleanerSampledCount() {
+        return map.stats().cleanerSampledCount();
+    }
+
+    @Override
+    public long getCleanerBudgetOverruns() {
+        return map.getMapCleaner().budgetOverruns();
+    }
+
+    @Override
+    public long getCleanerSessionP50Nanos() {
+        return map.stats().sessionDurationPercentile(50);
+    }
+
+    @Override
+    public long getCleanerSessionP99Nanos() {
+        return map.stats().sessionDurationPercentile(99);
+    }
+
+    @Override
+    public long[] getCleanerRemovedPercentHistogram() {
+        return map.stats().removedPercentHistogram();
+    }
+}
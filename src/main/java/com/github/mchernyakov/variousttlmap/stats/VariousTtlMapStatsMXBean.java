@@ -0,0 +1,35 @@
+package com.github.mchernyakov.variousttlmap.stats;
+
+/**
+ * JMX view of the stats of a map, see {@link com.github.mchernyakov.variousttlmap.VariousTtlMapImpl.Builder#setStatsMBeanName(String)}.
+ */
+public interface VariousTtlMapStatsMXBean {
+
+    long getSize();
+
+    long getWeightedSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getExpiredOnReadCount();
+
+    long getEvictionCount();
+
+    long getCleanerRemovalCount();
+
+    long getCleanerSessionCount();
+
+    long getCleanerSampledCount();
+
+    long getCleanerBudgetOverruns();
+
+    long getCleanerSessionP50Nanos();
+
+    long getCleanerSessionP99Nanos();
+
+    long[] getCleanerRemovedPercentHistogram();
+}
@@ -0,0 +1,72 @@
+package com.github.mchernyakov.variousttlmap.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Direct buffers.
+ */
+public final class BufferUtil {
+    private static final Logger logger = LoggerFactory.getLogger(BufferUtil.class);
+
+    private static final Deallocator DEALLOCATOR = deallocator();
+
+    private BufferUtil() {
+    }
+
+    /**
+     * Frees memory of the direct buffer right away, without waiting for GC.
+     * The buffer must not be used after that.
+     * <p>
+     * If the JVM does not allow it, the memory is freed by GC as usual.
+     */
+    public static void free(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            DEALLOCATOR.free(buffer);
+        } catch (Exception e) {
+            logger.debug("Can't free direct buffer", e);
+        }
+    }
+
+    private static Deallocator deallocator() {
+        try {
+            // java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (Exception e) {
+            // java 8
+        }
+
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                Object bufferCleaner = cleaner.invoke(buffer);
+                if (bufferCleaner != null) {
+                    clean.invoke(bufferCleaner);
+                }
+            };
+        } catch (Exception e) {
+            logger.debug("Direct buffers will be freed by GC", e);
+            return buffer -> {
+                // no-op
+            };
+        }
+    }
+
+    @FunctionalInterface
+    private interface Deallocator {
+        void free(ByteBuffer buffer) throws Exception;
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.mchernyakov.variousttlmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncVariousTtlMapTest {
+
+    private VariousTtlMapImpl<String, String> ttlMap;
+    private ExecutorService executor;
+    private AsyncVariousTtlMap<String, String> asyncMap;
+
+    @Before
+    public void setUp() throws Exception {
+        ttlMap = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(2)
+                .setDelayMillis(100)
+                .build();
+        executor = Executors.newFixedThreadPool(2);
+        asyncMap = ttlMap.async(executor);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown();
+        ttlMap.shutdown();
+    }
+
+    @Test
+    public void basicTest() throws Exception {
+        asyncMap.putAsync("one", "1").get(1, TimeUnit.SECONDS);
+        assertEquals("1", asyncMap.getAsync("one").get(1, TimeUnit.SECONDS));
+
+        asyncMap.removeAsync("one").get(1, TimeUnit.SECONDS);
+        assertNull(asyncMap.getAsync("one").get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void orderTest() throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            String key = "key_" + (i % 100);
+            futures.add(i % 3 == 2 ? asyncMap.removeAsync(key) : asyncMap.putAsync(key, String.valueOf(i), 60));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+        // the last write of every key wins
+        for (int k = 0; k < 100; k++) {
+            int last = 9_900 + k;
+            String expected = last % 3 == 2 ? null : String.valueOf(last);
+            assertEquals(expected, ttlMap.get("key_" + k));
+        }
+    }
+
+    @Test
+    public void nullValueTest() throws Exception {
+        ttlMap.put("one", "1");
+        try {
+            asyncMap.putAsync("one", null);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+        try {
+            asyncMap.putAsync("one", null, 60);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+        assertEquals("1", ttlMap.get("one"));
+    }
+
+    @Test
+    public void rejectedTest() throws Exception {
+        executor.shutdown();
+        CompletableFuture<Void> future = asyncMap.putAsync("one", "1");
+        assertTrue(future.isCompletedExceptionally());
+        try {
+            future.join();
+        } catch (Exception e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
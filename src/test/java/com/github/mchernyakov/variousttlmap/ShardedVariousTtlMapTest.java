@@ -0,0 +1,140 @@
+package com.github.mchernyakov.variousttlmap;
+
+import com.github.mchernyakov.variousttlmap.applied.cleaner.CleanerType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedVariousTtlMapTest {
+
+    private ShardedVariousTtlMap<String, String> ttlMap;
+
+    @Before
+    public void setUp() throws Exception {
+        ttlMap = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(1)
+                .setCleaningPoolSize(2)
+                .setNumCleaningAttemptsPerSession(100)
+                .setDelayMillis(50)
+                .buildSharded(8);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ttlMap.shutdown();
+    }
+
+    @Test
+    public void aggregateTest() throws Exception {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            values.put("key_" + i, "val_" + i);
+        }
+        ttlMap.putAll(values, 100);
+        ttlMap.put("one", "1", 100);
+
+        assertEquals(1001, ttlMap.size());
+        assertEquals(1001, ttlMap.getStore().size());
+        assertEquals("1", ttlMap.get("one"));
+        assertEquals("1", ttlMap.getStore().get("one"));
+
+        Set<String> keys = new HashSet<>(ttlMap.getStore().keySet());
+        assertEquals(1001, keys.size());
+        assertTrue(keys.containsAll(values.keySet()));
+
+        List<String> someKeys = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            someKeys.add("key_" + i);
+        }
+        assertEquals(100, ttlMap.getAll(someKeys).size());
+        assertEquals(100, ttlMap.removeAll(someKeys));
+        assertEquals("1", ttlMap.remove("one"));
+        assertNull(ttlMap.get("one"));
+        assertEquals(900, ttlMap.size());
+
+        ttlMap.clear();
+        assertTrue(ttlMap.isEmpty());
+    }
+
+    @Test
+    public void cleanTest() throws Exception {
+        int threadsBefore = numCleanerThreads();
+        ShardedVariousTtlMap<String, String> wheelMap = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(1)
+                .setDelayMillis(50)
+                .setCleanerType(CleanerType.TIMING_WHEEL)
+                .buildSharded(16);
+        try {
+            // one own scheduler thread for all the shards
+            assertEquals(threadsBefore + 1, numCleanerThreads());
+
+            for (int i = 0; i < 1000; i++) {
+                ttlMap.put("key_" + i, "val");
+                wheelMap.put("key_" + i, "val");
+            }
+
+            await()
+                    .atMost(3000, MILLISECONDS)
+                    .until(() -> ttlMap.isEmpty() && wheelMap.isEmpty());
+        } finally {
+            wheelMap.shutdown();
+        }
+    }
+
+    @Test
+    public void maximumSizeTest() throws Exception {
+        ShardedVariousTtlMap<String, String> boundedMap = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(100)
+                .setMaximumSize(400)
+                .setStorageMode(StorageMode.SINGLE_ENTRY)
+                .buildSharded(4);
+        try {
+            for (int i = 0; i < 10_000; i++) {
+                boundedMap.put("key_" + i, "val");
+            }
+            assertTrue(boundedMap.size() <= 400);
+        } finally {
+            boundedMap.shutdown();
+        }
+    }
+
+    @Test
+    public void iteratorRemoveTest() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            ttlMap.put("key_" + i, "val", 100);
+        }
+
+        // hasNext() moves to the next shard after the last entry of a shard
+        Iterator<Map.Entry<String, String>> iterator = ttlMap.getStore().entrySet().iterator();
+        int numRemoved = 0;
+        while (iterator.hasNext()) {
+            String key = iterator.next().getKey();
+            iterator.hasNext();
+            iterator.remove();
+            assertNull(ttlMap.get(key));
+            numRemoved++;
+        }
+        assertEquals(100, numRemoved);
+        assertTrue(ttlMap.isEmpty());
+    }
+
+    private static int numCleanerThreads() {
+        return (int) Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("map-cleaner"))
+                .count();
+    }
+}
@@ -1,17 +1,59 @@
 package com.github.mchernyakov.variousttlmap;
 
+import com.github.mchernyakov.variousttlmap.applied.cleaner.CleanerType;
+import com.github.mchernyakov.variousttlmap.stats.CacheStats;
 import org.junit.Before;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.Map;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class VariousTtlMapImplTest {
 
+    private static final Serializer<String> UTF_8 = new Serializer<String>() {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private VariousTtlMapImpl<String, String> ttlMap;
 
     @Before
@@ -51,6 +93,526 @@ public class VariousTtlMapImplTest {
         System.out.println(ttlMap.size());
     }
 
+    @Test
+    public void singleEntryTest() throws Exception {
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(2)
+                .setStorageMode(StorageMode.SINGLE_ENTRY)
+                .setDelayMillis(100)
+                .build();
+
+        // the same hash code
+        map.put("Aa", "1", 1);
+        map.put("BB", "2", 3);
+        assertEquals("1", map.get("Aa"));
+        assertEquals("2", map.get("BB"));
+
+        await()
+                .atMost(2000, MILLISECONDS)
+                .until(() -> map.get("Aa") == null);
+        assertEquals("2", map.get("BB"));
+        assertEquals(1, map.size());
+        map.shutdown();
+    }
+
+    @Test
+    public void bulkTest() throws Exception {
+        for (StorageMode storageMode : StorageMode.values()) {
+            VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                    .setDefaultTtl(2)
+                    .setStorageMode(storageMode)
+                    .setValueSerializer(UTF_8)
+                    .setDelayMillis(100)
+                    .build();
+
+            Map<String, String> entries = new HashMap<>();
+            for (int i = 0; i < 100; i++) {
+                entries.put("key_" + i, "val_" + i);
+            }
+            map.putAll(entries, 1);
+            map.put("long", "val", 60);
+
+            List<String> keys = new ArrayList<>(entries.keySet());
+            keys.add("absent");
+            assertEquals(entries, map.getAll(keys));
+
+            assertEquals(50, map.removeAll(keys.subList(0, 50)));
+            assertEquals(51, map.size());
+
+            await()
+                    .atMost(2000, MILLISECONDS)
+                    .until(() -> map.getAll(keys).isEmpty());
+            assertEquals("val", map.get("long"));
+            map.shutdown();
+        }
+    }
+
+    @Test
+    public void singleFlightLoadTest() throws Exception {
+        AtomicInteger numLoads = new AtomicInteger();
+        Function<String, String> loader = key -> {
+            numLoads.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "loaded_" + key;
+        };
+
+        int numThreads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return ttlMap.computeIfAbsent("hot", loader, 1);
+            }));
+        }
+        start.countDown();
+        for (Future<String> future : futures) {
+            assertEquals("loaded_hot", future.get());
+        }
+        assertEquals(1, numLoads.get());
+
+        // expired entry is a miss
+        await()
+                .atMost(2000, MILLISECONDS)
+                .until(() -> ttlMap.checkExpired("hot"));
+        assertEquals("loaded_hot", ttlMap.get("hot", loader));
+        assertEquals(2, numLoads.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void refreshAheadTest() throws Exception {
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(2)
+                .setDelayMillis(100)
+                .setRefreshAheadPercent(50)
+                .setStaleGraceSeconds(5)
+                .build();
+
+        AtomicInteger version = new AtomicInteger();
+        Function<String, String> loader = key -> "v" + version.incrementAndGet();
+
+        assertEquals("v1", map.computeIfAbsent("key", loader, 2));
+        assertEquals("v1", map.computeIfAbsent("key", loader, 2));
+
+        // the last half of the ttl: the current value and a reload
+        Thread.sleep(1200);
+        assertEquals("v1", map.computeIfAbsent("key", loader, 2));
+        await()
+                .atMost(1000, MILLISECONDS)
+                .until(() -> "v2".equals(map.get("key")));
+
+        // expired, but in the grace period: the stale value and a reload
+        await()
+                .atMost(3000, MILLISECONDS)
+                .until(() -> map.checkExpired("key"));
+        Thread.sleep(300);
+        assertNull(map.get("key"));
+        assertEquals("v2", map.computeIfAbsent("key", loader, 2));
+        await()
+                .atMost(1000, MILLISECONDS)
+                .until(() -> "v3".equals(map.get("key")));
+        map.shutdown();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failedLoadTest() throws Exception {
+        try {
+            ttlMap.get("key", key -> {
+                throw new IllegalStateException();
+            });
+        } finally {
+            assertNull(ttlMap.get("key", key -> null));
+            assertTrue(ttlMap.isEmpty());
+        }
+    }
+
+    @Test
+    public void maximumSizeTest() throws Exception {
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setStorageMode(StorageMode.SINGLE_ENTRY)
+                .setMaximumSize(1000)
+                .recordStats()
+                .build();
+
+        for (int i = 0; i < 1000; i++) {
+            map.put("cold_" + i, "val");
+        }
+        Thread.sleep(5);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("val", map.get("cold_" + i));
+        }
+        Thread.sleep(5);
+        for (int i = 0; i < 500; i++) {
+            map.put("new_" + i, "val");
+        }
+
+        assertEquals(1000, map.size());
+        assertEquals(500, map.stats().evictionCount());
+        int hot = 0;
+        for (int i = 0; i < 100; i++) {
+            if (map.get("cold_" + i) != null) {
+                hot++;
+            }
+        }
+        assertTrue("hot keys left " + hot, hot >= 80);
+        map.shutdown();
+    }
+
+    @Test
+    public void maximumWeightTest() throws Exception {
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setStorageMode(StorageMode.SINGLE_ENTRY)
+                .setWeigher((String key, String value) -> value.length())
+                .setMaximumWeight(10_000)
+                .recordStats()
+                .build();
+
+        for (int i = 0; i < 100; i++) {
+            map.put("short_" + i, "0123456789", 1);
+        }
+        for (int i = 0; i < 100; i++) {
+            map.put("long_" + i, "0123456789", 60);
+        }
+        assertEquals(2000, map.weightedSize());
+        map.put("long_0", "01234");
+        map.remove("long_1");
+        assertEquals(1985, map.weightedSize());
+
+        // removals through the keys of the store count too
+        assertTrue(map.getStore().keySet().remove("long_2"));
+        Iterator<String> keys = map.getStore().keySet().iterator();
+        keys.next();
+        keys.remove();
+        assertEquals(197, map.size());
+        assertEquals(map.getStore().values().stream().mapToInt(String::length).sum(), map.weightedSize());
+        map.put("long_0", "0123456789");
+        map.put("long_1", "0123456789");
+        map.put("long_2", "0123456789");
+
+        // about 1000 over the bound
+        for (int i = 0; i < 45; i++) {
+            map.put("big_" + i, String.join("", Collections.nCopies(200, "x")), 60);
+        }
+        assertTrue(map.weightedSize() <= 10_000);
+        int numShort = 0;
+        int numLong = 0;
+        for (int i = 0; i < 100; i++) {
+            numShort += map.get("short_" + i) != null ? 1 : 0;
+            numLong += map.get("long_" + i) != null ? 1 : 0;
+        }
+        // keys closest to expiry go first
+        assertTrue("short " + numShort + ", long " + numLong, numShort < numLong);
+        assertTrue(map.stats().evictionCount() > 0);
+
+        map.clear();
+        assertEquals(0, map.weightedSize());
+        map.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximumSizeNeedsEntriesTest() {
+        VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setMaximumSize(1000)
+                .build();
+    }
+
+    @Test
+    public void offHeapValuesTest() throws Exception {
+        VariousTtlMapImpl<String, byte[]> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(1)
+                .setNumCleaningAttemptsPerSession(200)
+                .setDelayMillis(100)
+                .setStorageMode(StorageMode.OFF_HEAP_VALUES)
+                .setValueSerializer(new Serializer<byte[]>() {
+                    @Override
+                    public byte[] serialize(byte[] value) {
+                        return value;
+                    }
+
+                    @Override
+                    public byte[] deserialize(byte[] bytes) {
+                        return bytes;
+                    }
+                })
+                .build();
+
+        for (int i = 0; i < 1000; i++) {
+            map.put("key_" + i, new byte[1000]);
+        }
+        assertEquals(1000, map.get("key_1").length);
+        long offHeapBytes = map.offHeapBytes();
+        assertTrue(offHeapBytes >= 1000 * 1000);
+
+        await()
+                .atMost(5000, MILLISECONDS)
+                .until(map::isEmpty);
+        // one more session reclaims the chunks of the last removed keys
+        Thread.sleep(300);
+
+        for (int i = 0; i < 1000; i++) {
+            map.put("key_" + i, new byte[1000]);
+        }
+        assertEquals(offHeapBytes, map.offHeapBytes());
+        map.shutdown();
+    }
+
+    @Test
+    public void snapshotTest() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("map.snapshot");
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setKeySerializer(UTF_8)
+                .setValueSerializer(UTF_8)
+                .restoreFrom(path)
+                .build();
+        assertTrue(map.isEmpty());
+
+        for (int i = 0; i < 1000; i++) {
+            map.put("key_" + i, "val_" + i);
+        }
+        map.put("short", "val", 1);
+        assertEquals(1001, map.snapshot(path));
+        map.shutdown();
+
+        Thread.sleep(1100);
+        VariousTtlMapImpl<String, String> restored = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setStorageMode(StorageMode.SINGLE_ENTRY)
+                .setKeySerializer(UTF_8)
+                .setValueSerializer(UTF_8)
+                .restoreFrom(path)
+                .build();
+        assertEquals(1000, restored.size());
+        assertEquals("val_42", restored.get("key_42"));
+        assertNull(restored.get("short"));
+        restored.shutdown();
+    }
+
+    @Test
+    public void failedSnapshotTest() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("map.snapshot");
+        AtomicInteger serialized = new AtomicInteger();
+        Serializer<String> failing = new Serializer<String>() {
+            @Override
+            public byte[] serialize(String value) {
+                if (serialized.incrementAndGet() > 1500) {
+                    throw new IllegalStateException("serializer failure");
+                }
+                return UTF_8.serialize(value);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) {
+                return UTF_8.deserialize(bytes);
+            }
+        };
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setKeySerializer(UTF_8)
+                .setValueSerializer(failing)
+                .build();
+        for (int i = 0; i < 1000; i++) {
+            map.put("key_" + i, "val_" + i);
+        }
+        assertEquals(1000, map.snapshot(path));
+        try {
+            map.snapshot(path);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        map.shutdown();
+        assertFalse(Files.exists(path.resolveSibling("map.snapshot.tmp")));
+
+        VariousTtlMapImpl<String, String> restored = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setKeySerializer(UTF_8)
+                .setValueSerializer(UTF_8)
+                .restoreFrom(path)
+                .build();
+        assertEquals(1000, restored.size());
+        restored.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void offHeapValuesNeedSerializerTest() {
+        VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setStorageMode(StorageMode.OFF_HEAP_VALUES)
+                .build();
+    }
+
+    @Test
+    public void removalListenerTest() throws Exception {
+        Map<String, RemovalCause> causes = new ConcurrentHashMap<>();
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setDelayMillis(100)
+                .setRemovalListener((String key, String value, RemovalCause cause) -> causes.put(value, cause))
+                .build();
+
+        map.put("replaced", "old");
+        map.put("replaced", "new");
+        map.put("removed", "removed");
+        map.remove("removed");
+        map.put("expired", "expired", 1);
+
+        await()
+                .atMost(3000, MILLISECONDS)
+                .until(() -> causes.size() == 3);
+        assertEquals(RemovalCause.REPLACED, causes.get("old"));
+        assertEquals(RemovalCause.EXPLICIT, causes.get("removed"));
+        assertEquals(RemovalCause.EXPIRED, causes.get("expired"));
+        map.shutdown();
+
+        VariousTtlMapImpl<String, String> bounded = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setStorageMode(StorageMode.SINGLE_ENTRY)
+                .setMaximumSize(100)
+                .setRemovalListener((String key, String value, RemovalCause cause) -> causes.put(value, cause))
+                .build();
+        for (int i = 0; i < 110; i++) {
+            bounded.put("key_" + i, "val_" + i);
+        }
+        await()
+                .atMost(3000, MILLISECONDS)
+                .until(() -> causes.size() == 13);
+        assertEquals(10, causes.values().stream().filter(cause -> cause == RemovalCause.EVICTED).count());
+        assertEquals(0, bounded.droppedRemovalNotifications());
+        bounded.shutdown();
+    }
+
+    @Test
+    public void droppedRemovalNotificationsTest() {
+        List<Runnable> tasks = new ArrayList<>();
+        AtomicInteger notified = new AtomicInteger();
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setRemovalListener((String key, String value, RemovalCause cause) -> notified.incrementAndGet())
+                .setRemovalExecutor(tasks::add)
+                .setRemovalQueueCapacity(2)
+                .build();
+
+        for (int i = 0; i < 5; i++) {
+            map.put("key", "val_" + i);
+        }
+        assertEquals(2, map.droppedRemovalNotifications());
+        assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        assertEquals(2, notified.get());
+        map.shutdown();
+    }
+
+    @Test
+    public void manualTickerTest() {
+        ManualTicker ticker = new ManualTicker();
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setDelayMillis(100)
+                .setCleanerType(CleanerType.TIMING_WHEEL)
+                .setTicker(ticker)
+                .build();
+
+        map.put("short", "val", 1);
+        map.put("long", "val");
+        ticker.advance(1500, MILLISECONDS);
+        assertNull(map.get("short"));
+        assertEquals("val", map.get("long"));
+
+        ticker.advance(60, SECONDS);
+        await()
+                .atMost(1000, MILLISECONDS)
+                .until(map::isEmpty);
+        map.shutdown();
+    }
+
+    @Test
+    public void expireAfterAccessTest() {
+        for (StorageMode mode : StorageMode.values()) {
+            ManualTicker ticker = new ManualTicker();
+            VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                    .setDefaultTtl(2)
+                    .setStorageMode(mode)
+                    .setValueSerializer(UTF_8)
+                    .expireAfterAccess(2, SECONDS)
+                    .setTicker(ticker)
+                    .build();
+
+            map.put("read", "val");
+            map.put("unread", "val");
+            ticker.advance(1500, MILLISECONDS);
+            assertEquals("val", map.get("read"));
+
+            ticker.advance(1500, MILLISECONDS);
+            assertEquals(mode.name(), "val", map.get("read"));
+            assertNull(map.get("unread"));
+
+            ticker.advance(2500, MILLISECONDS);
+            assertNull(mode.name(), map.get("read"));
+            map.shutdown();
+        }
+    }
+
+    @Test
+    public void coarseTickerTest() {
+        Ticker ticker = Ticker.coarseTicker();
+        long start = ticker.read();
+        await()
+                .atMost(1000, MILLISECONDS)
+                .until(() -> ticker.read() - start >= MILLISECONDS.toNanos(10));
+        assertTrue(ticker.read() - System.nanoTime() <= 0);
+    }
+
+    @Test
+    public void statsTest() throws Exception {
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(2)
+                .setDelayMillis(100)
+                .setStatsMBeanName("statsTest")
+                .build();
+
+        map.put("one", "1", 1);
+        map.put("two", "2", 60);
+        assertEquals("1", map.get("one"));
+        assertEquals("2", map.get("two"));
+        assertNull(map.get("three"));
+
+        CacheStats stats = map.stats();
+        assertEquals(2, stats.hitCount());
+        assertEquals(1, stats.missCount());
+
+        await()
+                .atMost(3000, MILLISECONDS)
+                .until(() -> map.size() == 1);
+        stats = map.stats();
+        assertEquals(1, stats.expiredOnReadCount() + stats.cleanerRemovalCount());
+        assertTrue(stats.cleanerSessionCount() > 0);
+
+        ObjectName name = new ObjectName("com.github.mchernyakov.variousttlmap:type=VariousTtlMap,name=\"statsTest\"");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(2L, server.getAttribute(name, "HitCount"));
+        map.shutdown();
+        assertFalse(server.isRegistered(name));
+
+        VariousTtlMapImpl<String, String> noStats = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(2)
+                .build();
+        noStats.put("one", "1");
+        noStats.get("one");
+        assertEquals(0, noStats.stats().hitCount());
+        noStats.shutdown();
+    }
+
     @Ignore
     @Test(expected = Exception.class)
     public void conditionTest() throws Exception {
@@ -0,0 +1,131 @@
+package com.github.mchernyakov.variousttlmap.aof;
+
+import com.github.mchernyakov.variousttlmap.Serializer;
+import com.github.mchernyakov.variousttlmap.VariousTtlMapImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AppendOnlyLogTest {
+
+    private static final Serializer<String> UTF_8 = new Serializer<String>() {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private VariousTtlMapImpl<String, String> open(Path path, FsyncPolicy fsyncPolicy, long rewriteMinBytes) {
+        return VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setDelayMillis(100)
+                .setKeySerializer(UTF_8)
+                .setValueSerializer(UTF_8)
+                .setAppendOnlyLog(path)
+                .setFsyncPolicy(fsyncPolicy)
+                .setLogRewriteMinBytes(rewriteMinBytes)
+                .build();
+    }
+
+    @Test
+    public void replayTest() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("map.aof");
+        for (FsyncPolicy fsyncPolicy : FsyncPolicy.values()) {
+            Files.deleteIfExists(path);
+            VariousTtlMapImpl<String, String> map = open(path, fsyncPolicy, 1 << 20);
+            for (int i = 0; i < 100; i++) {
+                map.put("key_" + i, "val_" + i);
+            }
+            map.put("key_1", "new");
+            map.remove("key_2");
+            map.put("short", "val", 1);
+            map.shutdown();
+
+            Thread.sleep(1100);
+            VariousTtlMapImpl<String, String> replayed = open(path, fsyncPolicy, 1 << 20);
+            assertEquals(99, replayed.size());
+            assertEquals("new", replayed.get("key_1"));
+            assertNull(replayed.get("key_2"));
+            assertEquals("val_3", replayed.get("key_3"));
+            assertNull(replayed.get("short"));
+
+            replayed.clear();
+            replayed.put("after", "clear");
+            replayed.shutdown();
+            VariousTtlMapImpl<String, String> cleared = open(path, fsyncPolicy, 1 << 20);
+            assertEquals(1, cleared.size());
+            cleared.shutdown();
+        }
+    }
+
+    @Test
+    public void cutRecordTest() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("map.aof");
+        VariousTtlMapImpl<String, String> map = open(path, FsyncPolicy.ALWAYS, 1 << 20);
+        map.put("one", "1");
+        map.put("two", "2");
+        map.shutdown();
+
+        long size = Files.size(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 1);
+        }
+
+        map = open(path, FsyncPolicy.ALWAYS, 1 << 20);
+        assertEquals(1, map.size());
+        map.put("three", "3");
+        map.shutdown();
+
+        map = open(path, FsyncPolicy.ALWAYS, 1 << 20);
+        assertEquals("1", map.get("one"));
+        assertEquals("3", map.get("three"));
+        map.shutdown();
+    }
+
+    @Test
+    public void rewriteTest() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("map.aof");
+        VariousTtlMapImpl<String, String> map = open(path, FsyncPolicy.EVERY_SECOND, 1 << 14);
+        for (int round = 0; round < 1000; round++) {
+            for (int i = 0; i < 10; i++) {
+                map.put("key_" + i, "val_" + round);
+            }
+        }
+
+        // records appended during a rewrite stay in the new file, so the writes go on until a rewrite is small
+        VariousTtlMapImpl<String, String> written = map;
+        await()
+                .atMost(5000, MILLISECONDS)
+                .until(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        written.put("key_0", "val_999");
+                    }
+                    return Files.size(path) < 1 << 15;
+                });
+        map.shutdown();
+
+        map = open(path, FsyncPolicy.EVERY_SECOND, 1 << 14);
+        assertEquals(10, map.size());
+        assertEquals("val_999", map.get("key_7"));
+        map.shutdown();
+    }
+}
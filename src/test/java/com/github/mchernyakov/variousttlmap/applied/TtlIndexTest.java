@@ -0,0 +1,162 @@
+package com.github.mchernyakov.variousttlmap.applied;
+
+import com.github.mchernyakov.variousttlmap.TtlIndexEngine;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class TtlIndexTest {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> engines() {
+        return Arrays.asList(new Object[][]{
+                {TtlIndexEngine.READ_WRITE_LOCK},
+                {TtlIndexEngine.STAMPED_LOCK},
+                {TtlIndexEngine.OFF_HEAP}
+        });
+    }
+
+    private final Supplier<TtlIndex> engine;
+
+    public TtlIndexTest(Supplier<TtlIndex> engine) {
+        this.engine = engine;
+    }
+
+    @Test
+    public void basicTest() {
+        TtlIndex index = engine.get();
+        index.put(1, 10L);
+        index.put(-17, 20L);
+        index.put(33, 30L);
+        assertEquals(10L, index.get(1));
+        assertEquals(20L, index.get(-17));
+        assertEquals(0L, index.get(2));
+
+        index.remove(1);
+        assertEquals(0L, index.get(1));
+
+        Map<Integer, Long> entries = new HashMap<>();
+        index.forEach(entries::put);
+        Map<Integer, Long> expected = new HashMap<>();
+        expected.put(-17, 20L);
+        expected.put(33, 30L);
+        assertEquals(expected, entries);
+
+        index.clear();
+        assertEquals(0L, index.get(33));
+    }
+
+    @Test
+    public void extendTest() {
+        TtlIndex index = engine.get();
+        index.put(1, 1000L);
+
+        assertFalse(index.extend(1, 1010L, 10));
+        assertEquals(1000L, index.get(1));
+        assertTrue(index.extend(1, 1011L, 10));
+        assertEquals(1011L, index.get(1));
+        assertFalse(index.extend(1, 500L, 10));
+        assertFalse(index.extend(2, 2000L, 10));
+        assertEquals(0L, index.get(2));
+    }
+
+    @Test
+    public void batchTest() {
+        TtlIndex index = engine.get();
+        int size = 1000;
+        int[] hashes = new int[size + 1];
+        long[] values = new long[size + 1];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = i * 31 - size;
+            values[i] = i + 1;
+        }
+        // not a part of the batch
+        hashes[size] = 42_000;
+        values[size] = 1;
+
+        index.putAll(hashes, values, size);
+        for (int i = 0; i < size; i++) {
+            assertEquals(i + 1, index.get(hashes[i]));
+        }
+        assertEquals(0L, index.get(42_000));
+
+        long[] res = new long[size];
+        index.getAll(hashes, res, size);
+        for (int i = 0; i < size; i++) {
+            assertEquals(i + 1, res[i]);
+        }
+
+        index.removeAll(hashes, size / 2);
+        index.getAll(hashes, res, size);
+        for (int i = 0; i < size; i++) {
+            assertEquals(i < size / 2 ? 0 : i + 1, res[i]);
+        }
+    }
+
+    @Test
+    public void growTest() {
+        TtlIndex index = engine.get();
+        int numKeys = 200_000;
+        for (int i = 0; i < numKeys; i++) {
+            index.put(i * 31, i);
+        }
+        for (int i = 0; i < numKeys; i += 2) {
+            index.remove(i * 31);
+        }
+        for (int i = 0; i < numKeys; i++) {
+            assertEquals(i % 2 == 0 ? 0L : i, index.get(i * 31));
+        }
+
+        long offHeapBytes = index.offHeapBytes();
+        assertEquals(engine == TtlIndexEngine.OFF_HEAP, offHeapBytes >= numKeys * 16L);
+
+        index.release();
+        assertEquals(0L, index.offHeapBytes());
+    }
+
+    @Test
+    public void concurrentTest() throws Exception {
+        TtlIndex index = engine.get();
+        int numKeys = 10_000;
+        for (int i = 0; i < numKeys; i++) {
+            index.put(i, i + 1);
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            // writers grow and shrink the maps, readers always see the stable keys
+            Future<?> writer = executorService.submit(() -> {
+                for (int i = 0; i < 200_000; i++) {
+                    int hash = numKeys + ThreadLocalRandom.current().nextInt(100_000);
+                    index.put(hash, 1L);
+                    index.remove(hash);
+                }
+            });
+            Future<?> reader = executorService.submit(() -> {
+                for (int i = 0; i < 200_000; i++) {
+                    int hash = ThreadLocalRandom.current().nextInt(numKeys);
+                    assertEquals(hash + 1, index.get(hash));
+                }
+            });
+            writer.get();
+            reader.get();
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.mchernyakov.variousttlmap.applied.cleaner;
 
+import com.github.mchernyakov.variousttlmap.ManualTicker;
 import com.github.mchernyakov.variousttlmap.VariousTtlMap;
 import com.github.mchernyakov.variousttlmap.VariousTtlMapImpl;
 import org.junit.After;
@@ -14,8 +15,10 @@ import java.util.Random;
 import java.util.Set;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class AbstractBackgroundMapCleanerTest {
 
@@ -66,6 +69,174 @@ public class AbstractBackgroundMapCleanerTest {
         mapClassic.shutdown();
     }
 
+    @Test
+    public void randomProbeTest() throws Exception {
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(2)
+                .setCleaningPoolSize(POOL_SIZE)
+                .setNumCleaningAttemptsPerSession(250)
+                .setWaterMarkPercent(10)
+                .setDelayMillis(100)
+                .setSamplingMode(SamplingMode.RANDOM_PROBE)
+                .build();
+
+        int attempts = 10_000;
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < attempts; i++) {
+            String key = "key_" + i;
+            keys.add(key);
+            map.put(key, "val", i % 2 == 0 ? 1 : 60);
+        }
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(keys.contains(map.randomKey()));
+        }
+
+        await()
+                .atMost(4000, MILLISECONDS)
+                .until(() -> map.size() < attempts * 65 / 100);
+        map.shutdown();
+        Assert.assertNull(map.randomKey());
+    }
+
+    @Test
+    public void stripedRandomProbeTest() throws Exception {
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(2)
+                .setCleaningPoolSize(3)
+                .setNumCleaningAttemptsPerSession(250)
+                .setWaterMarkPercent(10)
+                .setDelayMillis(100)
+                .setSamplingMode(SamplingMode.RANDOM_PROBE)
+                .build();
+
+        int attempts = 10_000;
+        for (int i = 0; i < attempts; i++) {
+            map.put("key_" + i, "val", i % 2 == 0 ? 1 : 60);
+        }
+
+        Set<String> fromStripes = new HashSet<>();
+        for (int stripe = 0; stripe < 4; stripe++) {
+            for (int i = 0; i < 100; i++) {
+                fromStripes.add(map.randomKey(stripe, 4));
+            }
+        }
+        Assert.assertFalse(fromStripes.contains(null));
+
+        await()
+                .atMost(4000, MILLISECONDS)
+                .until(() -> map.size() < attempts * 65 / 100);
+        map.shutdown();
+    }
+
+    @Test
+    public void stolenStripeOverrunTest() throws Exception {
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setCleaningPoolSize(2)
+                .setNumCleaningAttemptsPerSession(250)
+                .setWaterMarkPercent(10)
+                .setDelayMillis(Integer.MAX_VALUE)
+                .setSamplingMode(SamplingMode.RANDOM_PROBE)
+                .build();
+        MultiThreadMapCleaner<String, String> cleaner = (MultiThreadMapCleaner<String, String>) map.getMapCleaner();
+        // sessions are run by hand
+        cleaner.shutdown();
+        for (int i = 0; i < 1000; i++) {
+            map.put("key_" + i, "val");
+        }
+
+        // out of time at the first stripe
+        cleaner.runProbeSession(0, new AbstractBackgroundMapCleaner.Session(System.nanoTime() - 1_000_000, 1));
+        assertEquals(Arrays.asList(0, 2, 4, 6), cleaner.queuedStripes(0));
+
+        // the second worker steals the last stripe of the first one and is out of time
+        cleaner.runProbeSession(1, new AbstractBackgroundMapCleaner.Session(System.nanoTime() - 1_000_000, 1));
+        assertEquals(Arrays.asList(6, 0, 2, 4), cleaner.queuedStripes(0));
+        assertTrue(cleaner.queuedStripes(1).isEmpty());
+
+        cleaner.runProbeSession(1, new AbstractBackgroundMapCleaner.Session(System.nanoTime(), 0));
+        assertTrue(cleaner.queuedStripes(0).isEmpty());
+        assertTrue(cleaner.queuedStripes(1).isEmpty());
+        map.shutdown();
+    }
+
+    @Test
+    public void adaptiveDelayTest() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setTicker(ticker)
+                .setDefaultTtl(2)
+                .setNumCleaningAttemptsPerSession(250)
+                .setWaterMarkPercent(10)
+                .setDelayMillis(1000)
+                .setMinDelayMillis(10)
+                .setMaxDelayMillis(2000)
+                .setSamplingMode(SamplingMode.RANDOM_PROBE)
+                .build();
+
+        AbstractBackgroundMapCleaner<String, String> cleaner = (AbstractBackgroundMapCleaner<String, String>) map.getMapCleaner();
+        assertEquals(500, cleaner.nextDelay(1000, true));
+        assertEquals(10, cleaner.nextDelay(15, true));
+        assertEquals(2000, cleaner.nextDelay(1000, false));
+        assertEquals(2000, cleaner.nextDelay(2000, false));
+
+        // sessions are run by hand
+        cleaner.shutdown();
+        int attempts = 10_000;
+        for (int i = 0; i < attempts; i++) {
+            map.put("key_" + i, "val", i % 2 == 0 ? 1 : 60);
+        }
+
+        long delay = 1000;
+        Assert.assertFalse(cleaner.runSession());
+        delay = cleaner.nextDelay(delay, false);
+        assertEquals(2000, delay);
+
+        ticker.advance(2, SECONDS);
+        Assert.assertTrue(cleaner.runSession());
+        delay = cleaner.nextDelay(delay, true);
+        assertEquals(1000, delay);
+
+        // a session stops below the water mark, so the number of dirty ones varies
+        while (cleaner.runSession()) {
+            delay = cleaner.nextDelay(delay, true);
+        }
+        long dirtyDelay = delay;
+        delay = cleaner.nextDelay(delay, false);
+        assertEquals(dirtyDelay * 2, delay);
+        map.shutdown();
+    }
+
+    @Test
+    public void sessionBudgetTest() throws Exception {
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(1)
+                .setNumCleaningAttemptsPerSession(100_000)
+                .setWaterMarkPercent(10)
+                .setDelayMillis(Integer.MAX_VALUE)
+                .setSessionBudgetMillis(1)
+                .setSamplingMode(SamplingMode.RANDOM_PROBE)
+                .build();
+
+        int attempts = 100_000;
+        for (int i = 0; i < attempts; i++) {
+            map.put("key_" + i, "val");
+        }
+        Thread.sleep(1100);
+
+        AbstractBackgroundMapCleaner<String, String> cleaner = (AbstractBackgroundMapCleaner<String, String>) map.getMapCleaner();
+        // the first scheduled session may run while the keys are being put
+        long overruns = cleaner.budgetOverruns();
+        Assert.assertTrue(cleaner.runSession());
+        Assert.assertEquals(overruns + 1, cleaner.budgetOverruns());
+        Assert.assertTrue(map.size() > 0);
+
+        while (map.size() > 0) {
+            cleaner.runSession();
+        }
+        map.shutdown();
+    }
+
     @Test
     public void checkExcessWaterMarkTest() {
         boolean res = mapCleaner.checkExcessWaterMark(100, 25);
@@ -0,0 +1,133 @@
+package com.github.mchernyakov.variousttlmap.applied.cleaner;
+
+import com.github.mchernyakov.variousttlmap.VariousTtlMapImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CleanerSchedulerTest {
+
+    private CleanerScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new CleanerScheduler(2, CleanerScheduler.Policy.EXPIRED_RATIO);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void sharedTest() throws Exception {
+        int threadsBefore = numCleanerThreads();
+
+        List<VariousTtlMapImpl<String, String>> maps = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                    .setDefaultTtl(1)
+                    .setDelayMillis(50)
+                    .setNumCleaningAttemptsPerSession(100)
+                    .setCleanerType(i % 2 == 0 ? CleanerType.RANDOM_SAMPLING : CleanerType.TIMING_WHEEL)
+                    .setCleanerScheduler(scheduler)
+                    .build();
+            for (int j = 0; j < 100; j++) {
+                map.put("key_" + j, "val");
+            }
+            maps.add(map);
+        }
+        assertEquals(50, scheduler.size());
+        assertEquals(threadsBefore, numCleanerThreads());
+
+        await()
+                .atMost(3000, MILLISECONDS)
+                .until(() -> maps.stream().allMatch(VariousTtlMapImpl::isEmpty));
+
+        maps.forEach(VariousTtlMapImpl::shutdown);
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void cancelWaitsForRunTest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        CleanerScheduler.Registration registration = scheduler.register(new CleanerScheduler.Job() {
+            @Override
+            public long run() {
+                runs.incrementAndGet();
+                started.countDown();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 0;
+            }
+
+            @Override
+            public double expiredRatio() {
+                return 0;
+            }
+        }, 0);
+
+        assertTrue(started.await(1000, MILLISECONDS));
+        registration.cancel();
+        int numRuns = runs.get();
+        Thread.sleep(100);
+        assertEquals(numRuns, runs.get());
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void failingJobTest() throws Exception {
+        AtomicInteger failures = new AtomicInteger();
+        scheduler.register(new CleanerScheduler.Job() {
+            @Override
+            public long run() {
+                failures.incrementAndGet();
+                throw new IllegalStateException("broken map");
+            }
+
+            @Override
+            public double expiredRatio() {
+                return 1;
+            }
+        }, 0);
+        AtomicInteger runs = new AtomicInteger();
+        scheduler.register(new CleanerScheduler.Job() {
+            @Override
+            public long run() {
+                runs.incrementAndGet();
+                return MILLISECONDS.toNanos(10);
+            }
+
+            @Override
+            public double expiredRatio() {
+                return 0;
+            }
+        }, 0);
+
+        await()
+                .atMost(1000, MILLISECONDS)
+                .until(() -> runs.get() >= 20);
+        assertEquals(1, failures.get());
+        assertEquals(2, scheduler.size());
+    }
+
+    private static int numCleanerThreads() {
+        return (int) Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("map-cleaner"))
+                .count();
+    }
+}
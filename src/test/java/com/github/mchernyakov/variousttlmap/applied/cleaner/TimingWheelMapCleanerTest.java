@@ -0,0 +1,225 @@
+package com.github.mchernyakov.variousttlmap.applied.cleaner;
+
+import com.github.mchernyakov.variousttlmap.ManualTicker;
+import com.github.mchernyakov.variousttlmap.StorageMode;
+import com.github.mchernyakov.variousttlmap.Ticker;
+import com.github.mchernyakov.variousttlmap.VariousTtlMapImpl;
+import com.github.mchernyakov.variousttlmap.stats.CacheStats;
+import com.github.mchernyakov.variousttlmap.stats.StatsCounter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelMapCleanerTest {
+
+    private VariousTtlMapImpl<String, String> ttlMap;
+
+    @Before
+    public void setUp() throws Exception {
+        ttlMap = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(10)
+                .setStorageMode(StorageMode.SINGLE_ENTRY)
+                .setCleanerType(CleanerType.TIMING_WHEEL)
+                .setDelayMillis(10)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ttlMap.shutdown();
+    }
+
+    @Test
+    public void expireTest() throws Exception {
+        int attempts = 10_000;
+        for (int i = 0; i < attempts; i++) {
+            // 100 ticks, the timers cascade from the second level
+            ttlMap.put("key_" + i, "val", 1);
+        }
+        ttlMap.put("long", "val", 3);
+
+        await()
+                .atMost(1500, MILLISECONDS)
+                .until(() -> ttlMap.size() == 1);
+        assertEquals("val", ttlMap.get("long"));
+    }
+
+    @Test
+    public void rewriteTest() throws Exception {
+        ttlMap.put("one", "1", 1);
+        ttlMap.put("one", "2", 3);
+        ttlMap.put("two", "2", 1);
+
+        await()
+                .atMost(1500, MILLISECONDS)
+                .until(() -> ttlMap.size() == 1);
+        assertEquals("2", ttlMap.get("one"));
+    }
+
+    @Test
+    public void timerPerKeyTest() throws Exception {
+        TimingWheelMapCleaner<String, String> cleaner = (TimingWheelMapCleaner<String, String>) ttlMap.getMapCleaner();
+        for (int i = 0; i < 10_000; i++) {
+            ttlMap.put("hot", "val_" + i, 1 + i % 5);
+        }
+        ttlMap.put("cold", "val", 1);
+        assertEquals(2, cleaner.numTimers());
+
+        ttlMap.remove("hot");
+        await()
+                .atMost(1500, MILLISECONDS)
+                .until(() -> cleaner.numTimers() == 0 && ttlMap.isEmpty());
+    }
+
+    @Test
+    public void writeWhileDroppingTest() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        Set<String> keys = ConcurrentHashMap.newKeySet();
+        Semaphore inCheck = new Semaphore(0);
+        Semaphore proceed = new Semaphore(0);
+        AtomicReference<Thread> cleanerThread = new AtomicReference<>();
+        CleanableMap<String> map = new CleanableMap<String>() {
+            @Override
+            public int size() {
+                return keys.size();
+            }
+
+            @Override
+            public String randomKey(int stripe, int numStripes) {
+                return null;
+            }
+
+            @Override
+            public boolean removeIfExpired(@NotNull String key) {
+                return keys.remove(key);
+            }
+
+            @Override
+            public Set<String> keySet() {
+                return keys;
+            }
+
+            @Override
+            public boolean containsKey(@NotNull String key) {
+                boolean present = keys.contains(key);
+                if (Thread.currentThread() == cleanerThread.get()) {
+                    inCheck.release();
+                    try {
+                        proceed.tryAcquire(500, MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return present;
+            }
+
+            @Override
+            public StatsCounter getStatsCounter() {
+                return StatsCounter.disabled();
+            }
+
+            @Override
+            public Ticker getTicker() {
+                return ticker;
+            }
+        };
+        TimingWheelMapCleaner<String, String> cleaner = (TimingWheelMapCleaner<String, String>) BackgroundMapCleaner.Builder
+                .newBuilder()
+                .setDelayTime(10)
+                .setType(CleanerType.TIMING_WHEEL)
+                .<String, String>build(map);
+
+        keys.add("key");
+        cleaner.onWrite("key", SECONDS.toNanos(60));
+        cleaner.advance(0);
+        keys.remove("key");
+        cleaner.onRemove("key");
+
+        // the cleaner checks the key, then drops its timer under the lock of the key
+        Thread thread = new Thread(() -> cleaner.advance(0));
+        cleanerThread.set(thread);
+        thread.start();
+        assertTrue(inCheck.tryAcquire(1, SECONDS));
+        proceed.release();
+        assertTrue(inCheck.tryAcquire(1, SECONDS));
+
+        // the key is written again while the timer is being dropped
+        Thread writer = new Thread(() -> {
+            keys.add("key");
+            cleaner.onWrite("key", MILLISECONDS.toNanos(50));
+        });
+        writer.start();
+        Thread.sleep(100);
+        proceed.release();
+        thread.join(1000);
+        writer.join(1000);
+        cleanerThread.set(null);
+
+        ticker.advance(1, SECONDS);
+        assertEquals(1, cleaner.advance(100));
+        assertTrue(keys.isEmpty());
+        cleaner.shutdown();
+    }
+
+    @Test
+    public void clearTest() throws Exception {
+        ttlMap.put("one", "1", 1);
+        ttlMap.clear();
+        ttlMap.put("two", "2", 1);
+
+        await()
+                .atMost(1500, MILLISECONDS)
+                .until(() -> ttlMap.isEmpty());
+    }
+
+    @Test
+    public void levelBoundaryStatsTest() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        VariousTtlMapImpl<String, String> map = VariousTtlMapImpl.Builder.newBuilder()
+                .setDefaultTtl(60)
+                .setCleanerType(CleanerType.TIMING_WHEEL)
+                .setDelayMillis(1000)
+                .setTicker(ticker)
+                .recordStats()
+                .build();
+        try {
+            // due at tick 64 from the second level
+            map.put("a", "1", 63);
+            await()
+                    .atMost(2000, MILLISECONDS)
+                    .until(() -> map.stats().cleanerSessionCount() >= 1);
+
+            // due at tick 64 from the first level
+            ticker.advance(10, SECONDS);
+            map.put("b", "2", 53);
+            map.put("c", "3", 53);
+            long sessions = map.stats().cleanerSessionCount();
+            await()
+                    .atMost(2000, MILLISECONDS)
+                    .until(() -> map.stats().cleanerSessionCount() > sessions);
+
+            ticker.advance(55, SECONDS);
+            await()
+                    .atMost(2000, MILLISECONDS)
+                    .until(() -> map.stats().cleanerRemovalCount() == 3);
+            CacheStats stats = map.stats();
+            assertTrue(map.isEmpty());
+            assertTrue(stats.cleanerSampledCount() >= 3);
+            assertEquals(1, stats.removedPercentHistogram()[10]);
+        } finally {
+            map.shutdown();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.mchernyakov.variousttlmap.applied.storage;
+
+import com.github.mchernyakov.variousttlmap.Serializer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OffHeapValueStorageTest {
+
+    private static final Serializer<String> UTF_8 = new Serializer<String>() {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    private final OffHeapValueStorage<String, String> storage = new OffHeapValueStorage<>(UTF_8, 2, 1 << 12);
+
+    @After
+    public void tearDown() {
+        storage.release();
+    }
+
+    @Test
+    public void basicTest() {
+        long now = System.nanoTime();
+        assertNull(storage.put("one", "1", now + 1000));
+        assertNull(storage.put("empty", "", now + 1000));
+        assertEquals("1", storage.put("one", "one, one", now + 1000));
+        assertEquals("one, one", storage.get("one", now));
+        assertEquals("", storage.get("empty", now));
+        assertNull(storage.get("one", now + 2000));
+
+        assertEquals("one, one", storage.removeIfExpired("one", now + 2000));
+        assertEquals("", storage.remove("empty"));
+        assertNull(storage.remove("empty"));
+        assertEquals(0, storage.size());
+    }
+
+    @Test
+    public void reclaimTest() {
+        long expiration = System.nanoTime() + 1_000_000_000L;
+        char[] chars = new char[100];
+        long bytes = 0;
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 1000; i++) {
+                Arrays.fill(chars, (char) ('a' + (i + round) % 26));
+                storage.put("key_" + i, new String(chars), expiration);
+            }
+            storage.reclaim();
+            if (round == 2) {
+                bytes = storage.offHeapBytes();
+            }
+        }
+
+        // every round reuses the chunks of the round before the last one
+        assertEquals(bytes, storage.offHeapBytes());
+        assertEquals(1000, storage.size());
+        assertEquals(100, storage.get("key_1", 0).length());
+        assertEquals('a' + (1 + 9) % 26, storage.get("key_1", 0).charAt(0));
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.mchernyakov.variousttlmap.primitive;
+
+import com.github.mchernyakov.variousttlmap.applied.cleaner.CleanerType;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IntVariousTtlMapTest {
+
+    @Test
+    public void basicTest() throws Exception {
+        for (CleanerType cleanerType : CleanerType.values()) {
+            IntVariousTtlMap<String> map = IntVariousTtlMap.Builder.newBuilder()
+                    .setDefaultTtl(1)
+                    .setNumCleaningAttemptsPerSession(20)
+                    .setDelayMillis(100)
+                    .setCleanerType(cleanerType)
+                    .build();
+
+            map.put(0, "zero");
+            map.put(Integer.MIN_VALUE, "min");
+            map.put(-1, "minus", 5);
+            map.put(7, "seven", 5);
+            assertEquals("zero", map.get(0));
+            assertEquals("min", map.get(Integer.MIN_VALUE));
+            assertNull(map.get(1));
+            assertTrue(map.keySet().contains(Integer.MIN_VALUE));
+            assertEquals("seven", map.remove(7));
+            assertEquals(3, map.size());
+
+            await()
+                    .atMost(3000, MILLISECONDS)
+                    .until(() -> map.size() == 1);
+            assertEquals("minus", map.get(-1));
+            map.shutdown();
+        }
+    }
+}
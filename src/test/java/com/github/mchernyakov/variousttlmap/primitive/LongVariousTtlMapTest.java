@@ -0,0 +1,86 @@
+package com.github.mchernyakov.variousttlmap.primitive;
+
+import com.github.mchernyakov.variousttlmap.applied.cleaner.CleanerType;
+import com.github.mchernyakov.variousttlmap.applied.cleaner.SamplingMode;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LongVariousTtlMapTest {
+
+    @Test
+    public void basicTest() throws Exception {
+        LongVariousTtlMap<String> map = LongVariousTtlMap.Builder.newBuilder()
+                .setDefaultTtl(1)
+                .setNumCleaningAttemptsPerSession(20)
+                .setDelayMillis(100)
+                .recordStats()
+                .build();
+
+        map.put(0L, "zero");
+        map.put(Long.MAX_VALUE, "max");
+        map.put(-1L, "minus", 5);
+        assertEquals("zero", map.get(0L));
+        assertEquals("max", map.get(Long.MAX_VALUE));
+        assertNull(map.get(1L));
+        assertEquals(3, map.size());
+
+        await()
+                .atMost(3000, MILLISECONDS)
+                .until(() -> map.size() == 1);
+        assertEquals("minus", map.get(-1L));
+        assertEquals("minus", map.remove(-1L));
+        assertEquals(3, map.stats().hitCount());
+        assertEquals(1, map.stats().missCount());
+        map.shutdown();
+    }
+
+    @Test
+    public void cleanersTest() throws Exception {
+        for (CleanerType cleanerType : CleanerType.values()) {
+            for (SamplingMode samplingMode : SamplingMode.values()) {
+                LongVariousTtlMap<String> map = LongVariousTtlMap.Builder.newBuilder()
+                        .setDefaultTtl(1)
+                        .setCleaningPoolSize(2)
+                        .setNumCleaningAttemptsPerSession(50)
+                        .setDelayMillis(100)
+                        .setCleanerType(cleanerType)
+                        .setSamplingMode(samplingMode)
+                        .build();
+
+                for (long i = 0; i < 1000; i++) {
+                    map.put(i * 31, "val");
+                }
+
+                await()
+                        .atMost(5000, MILLISECONDS)
+                        .until(map::isEmpty);
+                map.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void intKeysTest() throws Exception {
+        IntVariousTtlMap<String> map = IntVariousTtlMap.Builder.newBuilder()
+                .setDefaultTtl(1)
+                .setNumCleaningAttemptsPerSession(100)
+                .setDelayMillis(100)
+                .setBuckets(4)
+                .build();
+
+        for (int i = -500; i < 500; i++) {
+            map.put(i, "val");
+        }
+        assertEquals(1000, map.size());
+        assertEquals("val", map.get(0));
+
+        await()
+                .atMost(3000, MILLISECONDS)
+                .until(map::isEmpty);
+        map.shutdown();
+    }
+}